@@ -1,10 +1,9 @@
 package com.mrdai.crawly;
 
+import com.mrdai.crawly.downloader.CircuitOpenException;
 import com.mrdai.crawly.downloader.Downloader;
 import com.mrdai.crawly.network.Request;
 import com.mrdai.crawly.network.Response;
-import com.mrdai.crawly.pipeline.Pipeline;
-import com.mrdai.crawly.processor.PageProcessor;
 import com.mrdai.crawly.scheduler.Scheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +19,12 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>
  * To handle new requests added by {@code PageProcessor}, the crawler will explicitly request for the intrinsic
  * lock of the {@code Scheduler}, hence using a thread-safe {@code Scheduler} in this crawler is <b>unnecessary</b>.
+ * The lock is that of the {@code Scheduler} returned by {@link #getScheduler()} once the crawler has started;
+ * any other thread pushing requests to the crawler while it is running must hold it, and should notify the
+ * waiting download threads afterwards. While a {@link com.mrdai.crawly.scheduler.DeferringScheduler
+ * DeferringScheduler} holds requests back, idle download threads poll it again every {@code waitTime}
+ * milliseconds, and the crawl does not end. The same goes for requests held back as the circuit breaker of their
+ * host is open.
  * <p>
  * However, the process threads will concurrently use {@code PageProcessor}s and {@code Pipeline}s to process
  * every incoming response, it would be important to make sure they are thread-safe when you are using more
@@ -131,11 +136,13 @@ public class ConcurrentCrawler extends Crawler {
                 interruptAll();
                 break;
             }
-            // Check if all worker threads are waiting
-            if (waitingThreads.compareAndSet(threads.length, threads.length)) {
-                LOG.info("All worker threads are completed.");
-                interruptAll();
-                break;
+            // Check if all worker threads are waiting, and no request is held back by the scheduler
+            synchronized (scheduler) {
+                if (waitingThreads.compareAndSet(threads.length, threads.length) && !hasDeferredRequests()) {
+                    LOG.info("All worker threads are completed.");
+                    interruptAll();
+                    break;
+                }
             }
         }
     }
@@ -164,21 +171,24 @@ public class ConcurrentCrawler extends Crawler {
             outer:
             for (Request request;;) {
                 synchronized (scheduler) {
-                    request = scheduler.poll();
+                    request = pollRequest();
                     while (request == null) {
                         LOG.debug("No more request for download thread #{}. Waiting for new request...",
                             Thread.currentThread().getName());
                         try {
                             waitingThreads.getAndIncrement();
-                            scheduler.wait();
+                            if (hasDeferredRequests())
+                                scheduler.wait(waitTime);
+                            else
+                                scheduler.wait();
                         } catch (InterruptedException e) {
                             LOG.debug("Received interrupt signal. Download thread #{} returns.",
                                 Thread.currentThread().getName());
                             break outer;
                         }
-                        // Notified by process thread
+                        // Notified by process thread, or polling a deferring scheduler again
                         waitingThreads.getAndDecrement();
-                        request = scheduler.poll();
+                        request = pollRequest();
                     }
                 }
                 LOG.debug("Download thread #{} received request : {}",
@@ -187,6 +197,7 @@ public class ConcurrentCrawler extends Crawler {
                 Response response = null;
                 try {
                     LOG.info("Executing request: {}", request.toString());
+                    recordAttempt(request);
                     for (Downloader downloader : downloaders) {
                         if (downloader.supports(request)) {
                             response = downloader.download(request);
@@ -198,6 +209,9 @@ public class ConcurrentCrawler extends Crawler {
                         queue.add(response);
                         queue.notifyAll();
                     }
+                } catch (CircuitOpenException e) {
+                    holdBack(request, e);
+                    continue;
                 } catch (IOException e) {
                     LOG.error("Unexpected exception occurred when executing request: " + request, e);
                 }
@@ -238,30 +252,18 @@ public class ConcurrentCrawler extends Crawler {
                 LOG.debug("Process thread #{} received response from request: {}",
                     Thread.currentThread().getName(), response.getRequest());
 
-                ResultItems resultItems = null;
-                for (PageProcessor processor : processors) {
-                    if (processor.supports(response)) {
-                        resultItems = processor.process(response);
-                        break;
-                    }
+                ResultItems resultItems;
+                try {
+                    resultItems = process(response);
+                } finally {
+                    release(response);
                 }
-                if (resultItems == null) {
-                    LOG.error("Cannot find suitable processor for response {}", response);
+                if (resultItems == null)
                     continue;
-                }
-
-                // Go through pipelines
-                for (Pipeline pipeline : pipelines) {
-                    if (!pipeline.process(resultItems)) {
-                        break;
-                    }
-                }
 
                 // Adds new requests to the scheduler and notify all waiting download threads.
                 synchronized (scheduler) {
-                    for (Request addedRequest : resultItems.getAddedRequests())
-                        scheduler.push(addedRequest);
-                    if (!resultItems.getAddedRequests().isEmpty())
+                    if (pushAddedRequests(resultItems))
                         scheduler.notifyAll();
                 }
             }
@@ -1,18 +1,33 @@
 package com.mrdai.crawly;
 
+import com.mrdai.crawly.downloader.CircuitOpenException;
+import com.mrdai.crawly.downloader.ContentPolicy;
+import com.mrdai.crawly.downloader.ContentPolicyAware;
 import com.mrdai.crawly.downloader.Downloader;
+import com.mrdai.crawly.downloader.Prewarmable;
+import com.mrdai.crawly.network.CrawlMetadata;
 import com.mrdai.crawly.network.Request;
 import com.mrdai.crawly.network.Response;
+import com.mrdai.crawly.network.http.HttpHeaders;
+import com.mrdai.crawly.network.http.HttpResponse;
 import com.mrdai.crawly.pipeline.Pipeline;
 import com.mrdai.crawly.processor.PageProcessor;
+import com.mrdai.crawly.scheduler.DeferringScheduler;
 import com.mrdai.crawly.scheduler.Scheduler;
+import com.mrdai.crawly.scheduler.SeedingScheduler;
+import com.mrdai.crawly.seed.SeedSource;
+import org.apache.http.Header;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -73,13 +88,22 @@ public class Crawler {
     private static final int RUNNING = 1;
     private static final int ENDED = 2;
 
+    private static final int MAX_PREWARM_TARGETS = 10000;
+    private static final long DEFERRED_POLL_INTERVAL = 100;
+
     private final AtomicInteger state = new AtomicInteger();
+    private final DelayQueue<HeldRequest> heldBack = new DelayQueue<>();
 
     protected Scheduler scheduler;
     protected List<Downloader> downloaders;
     protected List<PageProcessor> processors;
     protected List<Pipeline> pipelines;
+    protected List<SeedSource> seedSources;
 
+    private ContentPolicy contentPolicy = ContentPolicy.ACCEPT_ALL;
+    private final List<Request> prewarmTargets = new ArrayList<>();
+    private long prewarmTimeout = -1;
+    private SeedingScheduler seeding;
 
 
     Crawler() {
@@ -96,6 +120,7 @@ public class Crawler {
         downloaders = new ArrayList<>();
         processors = new ArrayList<>();
         pipelines = new ArrayList<>();
+        seedSources = new ArrayList<>();
     }
 
     /**
@@ -161,6 +186,45 @@ public class Crawler {
         downloaders = Collections.unmodifiableList(downloaders);
         processors = Collections.unmodifiableList(processors);
         pipelines = Collections.unmodifiableList(pipelines);
+        seedSources = Collections.unmodifiableList(seedSources);
+
+        // Let downloaders skip the bodies no processor wants
+        contentPolicy = ContentPolicy.of(processors);
+        for (Downloader downloader : downloaders) {
+            if (!(downloader instanceof ContentPolicyAware))
+                continue;
+            ContentPolicyAware aware = (ContentPolicyAware) downloader;
+            if (aware.getContentPolicy() == null)
+                aware.setContentPolicy(contentPolicy);
+        }
+
+        // Open connections to the starting hosts before the first downloads
+        if (prewarmTimeout >= 0)
+            prewarm();
+        prewarmTargets.clear();
+
+        // Pull seeds lazily while crawling; the seeding scheduler owns the seed sources from then on
+        if (!seedSources.isEmpty()) {
+            seeding = new SeedingScheduler(scheduler, seedSources);
+            scheduler = seeding;
+        }
+    }
+
+    /**
+     * Pre-warms every {@link Prewarmable} downloader with the starting requests it supports.
+     */
+    private void prewarm() {
+        for (Downloader downloader : downloaders) {
+            if (!(downloader instanceof Prewarmable))
+                continue;
+            List<Request> supported = new ArrayList<>();
+            for (Request request : prewarmTargets) {
+                if (downloader.supports(request))
+                    supported.add(request);
+            }
+            if (!supported.isEmpty())
+                ((Prewarmable) downloader).prewarm(supported, prewarmTimeout);
+        }
     }
 
     /**
@@ -172,17 +236,20 @@ public class Crawler {
      * this method to provide additional support.
      */
     protected void run() {
-        Request request = scheduler.poll();
-        while (request != null) {
+        for (Request request = pollNext(); request != null; request = pollNext()) {
             Response response = null;
             try {
                 LOG.info("Executing request: {}", request.toString());
+                recordAttempt(request);
                 for (Downloader downloader : downloaders) {
                     if (downloader.supports(request)) {
                         response = downloader.download(request);
                         break;
                     }
                 }
+            } catch (CircuitOpenException e) {
+                holdBack(request, e);
+                continue;
             } catch (IOException e) {
                 LOG.error("Unexpected exception occurred when executing request: " + request, e);
                 // Push back the request to retry later
@@ -194,30 +261,176 @@ public class Crawler {
                 continue;
             }
 
-            ResultItems resultItems = null;
-            for (PageProcessor processor : processors) {
-                if (processor.supports(response)) {
-                    resultItems = processor.process(response);
-                    break;
-                }
+            ResultItems resultItems;
+            try {
+                resultItems = process(response);
+            } finally {
+                release(response);
             }
-            if (resultItems == null) {
-                LOG.error("Cannot find suitable processor for response {}", response);
-                continue;
+            if (resultItems != null)
+                pushAddedRequests(resultItems);
+        }
+    }
+
+    /**
+     * Polls the next {@code Request} from the {@code Scheduler}, polling again from time to time while
+     * a {@link DeferringScheduler} holds requests back. Returns {@code null} once the {@code Scheduler}
+     * is exhausted, or the current thread is interrupted.
+     *
+     * @return the next {@code Request}, or {@code null}.
+     */
+    private Request pollNext() {
+        Request request = pollRequest();
+        while (request == null && hasDeferredRequests()) {
+            try {
+                Thread.sleep(DEFERRED_POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
             }
+            request = pollRequest();
+        }
+        return request;
+    }
 
-            // Go through pipelines
-            for (Pipeline pipeline : pipelines) {
-                if (!pipeline.process(resultItems)) {
-                    break;
-                }
+    /**
+     * Returns the next request to download: a request held back by {@link #holdBack(Request, CircuitOpenException)}
+     * whose delay has passed, or else the next request of the {@code Scheduler}.
+     *
+     * @return the next request to download, or {@code null} if there is none for now.
+     */
+    protected Request pollRequest() {
+        HeldRequest held = heldBack.poll();
+        return held != null ? held.request : scheduler.poll();
+    }
+
+    /**
+     * Holds back the given request, rejected as the circuit breaker of its host is open, until the breaker may
+     * let it through. The request bypasses the {@code Scheduler} on its way back, as pushing it again would have
+     * it polled right away, or dropped by a scheduler filtering the requests it has seen.
+     *
+     * @param request the rejected request.
+     * @param e the {@code CircuitOpenException} the request was rejected with.
+     */
+    protected void holdBack(Request request, CircuitOpenException e) {
+        LOG.debug("Holding back request {} for {}ms as the circuit breaker of host {} is open.",
+            request, e.getRetryDelay(), e.getHost());
+        heldBack.add(new HeldRequest(request, e.getRetryDelay()));
+    }
+
+    /**
+     * Returns if the {@code Scheduler} is a {@link DeferringScheduler} holding requests back, or if requests
+     * rejected by an open circuit breaker are being held back, in which case the crawl must go on although no
+     * request is to be downloaded for now.
+     *
+     * @return {@code true} if more requests are to come; {@code false} otherwise.
+     */
+    protected boolean hasDeferredRequests() {
+        return !heldBack.isEmpty()
+            || scheduler instanceof DeferringScheduler && ((DeferringScheduler) scheduler).hasDeferred();
+    }
+
+    /**
+     * Processes the given {@code Response} with the first supporting {@code PageProcessor}, and passes the
+     * resulting {@code ResultItems} through the pipelines. Returns {@code null} if no processor supports
+     * the {@code Response}, or if its body was discarded as no processor wants it.
+     *
+     * @param response the given {@code Response}.
+     * @return the {@code ResultItems} extracted from the {@code Response}, or {@code null}.
+     */
+    protected ResultItems process(Response response) {
+        if (isDiscarded(response)) {
+            LOG.debug("Skipping response {} as no processor wants its body.", response);
+            return null;
+        }
+
+        ResultItems resultItems = null;
+        for (PageProcessor processor : processors) {
+            if (processor.supports(response)) {
+                resultItems = processor.process(response);
+                break;
             }
+        }
+        if (resultItems == null) {
+            LOG.error("Cannot find suitable processor for response {}", response);
+            return null;
+        }
 
-            for (Request addedRequest : resultItems.getAddedRequests())
-                scheduler.push(addedRequest);
+        // Go through pipelines
+        for (Pipeline pipeline : pipelines) {
+            if (!pipeline.process(resultItems)) {
+                break;
+            }
+        }
+        return resultItems;
+    }
+
+    /**
+     * Returns if the body of the given {@code Response} is missing because its downloader discarded it, i.e. if
+     * the {@code ContentPolicy} of the processors does not want its {@code Content-Type} and {@code Content-Length}.
+     */
+    private boolean isDiscarded(Response response) {
+        if (!(response instanceof HttpResponse) || ((HttpResponse) response).getEntity() != null)
+            return false;
+        HttpResponse hResponse = (HttpResponse) response;
+        Header contentType = hResponse.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+        Header contentLength = hResponse.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+        long length = -1;
+        if (contentLength != null) {
+            try {
+                length = Long.parseLong(contentLength.getValue().trim());
+            } catch (NumberFormatException e) {
+                LOG.debug("Ignoring invalid Content-Length of response {}", response);
+            }
+        }
+        return !contentPolicy.accepts(contentType == null ? null : contentType.getValue(), length);
+    }
+
+    /**
+     * Releases the resources held by the given {@code Response}, such as its network connection, by closing it
+     * if it is {@link Closeable}. This method will be invoked once the {@code Response} has gone through the
+     * processors and pipelines, whether or not they consumed it.
+     *
+     * @param response the given {@code Response}.
+     */
+    protected void release(Response response) {
+        if (!(response instanceof Closeable))
+            return;
+        try {
+            ((Closeable) response).close();
+        } catch (IOException e) {
+            LOG.warn("Failed to release response " + response, e);
+        }
+    }
 
-            request = scheduler.poll();
+    /**
+     * Increments the attempt count in the {@link CrawlMetadata} of the given {@code Request}.
+     * This method will be invoked right before the crawler tries to download the {@code Request}.
+     *
+     * @param request the {@code Request} about to be downloaded.
+     */
+    protected void recordAttempt(Request request) {
+        if (request.getMetadata() == null)
+            request.setMetadata(new CrawlMetadata());
+        request.getMetadata().incrementAttempts();
+    }
+
+    /**
+     * Pushes the {@code Request}s added to the given {@code ResultItems} to the {@code Scheduler}.
+     * Added requests without a {@link CrawlMetadata} are assigned one, with the request of the
+     * {@code ResultItems} as their parent.
+     *
+     * @param resultItems the {@code ResultItems} returned by a {@code PageProcessor}.
+     * @return {@code true} if any request was pushed to the {@code Scheduler}; {@code false} otherwise.
+     */
+    protected boolean pushAddedRequests(ResultItems resultItems) {
+        boolean pushed = false;
+        for (Request addedRequest : resultItems.getAddedRequests()) {
+            if (addedRequest.getMetadata() == null)
+                addedRequest.setMetadata(new CrawlMetadata(resultItems.getRequest()));
+            pushed |= scheduler.push(addedRequest);
         }
+        return pushed;
     }
 
     /**
@@ -225,6 +438,14 @@ public class Crawler {
      * This method will be invoked at the end of {@link #start()}.
      */
     protected void shutdown() {
+        if (scheduler instanceof Closeable) {
+            try {
+                ((Closeable) scheduler).close();
+            } catch (IOException e) {
+                LOG.error("Failed to close scheduler " + scheduler, e);
+            }
+        }
+
         for (Downloader downloader : downloaders) {
             try {
                 downloader.close();
@@ -240,6 +461,17 @@ public class Crawler {
                 LOG.error("Failed to close pipeline " + pipeline, e);
             }
         }
+
+        // Seed sources handed to a seeding scheduler are closed along with it
+        if (seeding != null)
+            return;
+        for (SeedSource seedSource : seedSources) {
+            try {
+                seedSource.close();
+            } catch (IOException e) {
+                LOG.error("Failed to close seed source " + seedSource, e);
+            }
+        }
     }
 
     /**
@@ -263,9 +495,43 @@ public class Crawler {
      */
     public void addStartRequest(Request request) {
         assertInitializing("Cannot add new starting request as the crawler has already started.");
+        if (request.getMetadata() == null)
+            request.setMetadata(new CrawlMetadata());
+        if (prewarmTargets.size() < MAX_PREWARM_TARGETS)
+            prewarmTargets.add(request);
         scheduler.push(request);
     }
 
+    /**
+     * Enables connection pre-warming: when the {@code Crawler} starts, every {@link Prewarmable} downloader opens
+     * connections to the hosts of the starting requests it supports, waiting at most the given timeout for each
+     * downloader. Only the first {@code 10000} requests added via {@link #addStartRequest(Request)} are considered;
+     * the requests of {@code SeedSource}s are not, as they are only read while crawling. On default, pre-warming
+     * is disabled.
+     *
+     * @param timeout the maximum time to wait for each downloader, in milliseconds, or a negative value to
+     *                disable pre-warming.
+     * @throws IllegalStateException if the {@code Crawler} has already started
+     */
+    public void setPrewarming(long timeout) {
+        assertInitializing("Cannot change pre-warming as the crawler has already started.");
+        this.prewarmTimeout = timeout;
+    }
+
+    /**
+     * Adds a new {@code SeedSource} to the {@code Crawler}. Unlike {@link #addStartRequest(Request)}, the starting
+     * requests of the {@code SeedSource} are pulled lazily while the crawler is running, whenever the
+     * {@code Scheduler} runs low on requests. {@code SeedSource}s are consumed in the order they are added.
+     *
+     * @param seedSource the new {@code SeedSource} to be added
+     * @throws IllegalStateException if the {@code Crawler} has already started
+     * @see SeedingScheduler
+     */
+    public void addSeedSource(SeedSource seedSource) {
+        assertInitializing("Cannot add new seed source as the crawler has already started.");
+        seedSources.add(seedSource);
+    }
+
     /**
      * Adds a new {@code Pipeline} to the {@code Crawler}
      *
@@ -280,7 +546,12 @@ public class Crawler {
     }
 
     /**
-     * Returns the {@code Scheduler} used by this {@code Crawler}
+     * Returns the {@code Scheduler} used by this {@code Crawler}.
+     * <p>
+     * Once the {@code Crawler} has started, this may be a {@link SeedingScheduler} wrapping the given
+     * {@code Scheduler}, if any {@code SeedSource} was added. Requests pushed from other threads while the
+     * {@code Crawler} is running must be pushed to the returned {@code Scheduler} while holding its intrinsic lock,
+     * as done by {@link com.mrdai.crawly.sitemap.SitemapReader#pushTo(Scheduler, int) SitemapReader#pushTo}.
      */
     public Scheduler getScheduler() {
         return scheduler;
@@ -352,4 +623,24 @@ public class Crawler {
         assertInitializing("Cannot change pipelines as the crawler has already started.");
         this.pipelines = pipelines;
     }
+    /** A request held back until the circuit breaker of its host may let it through. */
+    private static class HeldRequest implements Delayed {
+        private final Request request;
+        private final long dueAt;
+
+        HeldRequest(Request request, long delay) {
+            this.request = request;
+            this.dueAt = System.currentTimeMillis() + delay;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
 }
@@ -25,6 +25,8 @@ import java.util.*;
  * <p>
  *     Additionally, {@link PageProcessor} can add {@link Request} to the scheduler by invoking {@link #addedRequests}.
  *     The added request will be stored in a {@link List} and pushed to the scheduler after the processor returns.
+ *     Before being pushed, each added request without a {@link com.mrdai.crawly.network.CrawlMetadata CrawlMetadata}
+ *     is assigned one with the request of this {@code ResultItems} as its parent.
  * </p>
  *
  * @see PageProcessor
@@ -0,0 +1,430 @@
+package com.mrdai.crawly.downloader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.http.HttpEntity;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe bandwidth shaper, which caps the bytes per second transferred through the streams it wraps,
+ * both in total and per host.
+ * <p>
+ * The limiter is a hierarchy of token buckets: a global bucket shared by every stream, and a bucket per host,
+ * whose rate can be set per domain via {@link #setHostRate(String, double)}, or for every other host via
+ * {@link #setDefaultHostRate(double)}. Every byte read or written through a wrapped stream takes a token from the
+ * bucket of its host, then from the global bucket, waiting until both can afford it. To keep the overhead low at
+ * high rates, bytes are taken from the buckets in chunks of {@code 16} KiB rather than on every read, thus a
+ * stream may briefly run ahead of its rate by at most one chunk, and each bucket allows bursts of up to one
+ * second worth of bytes.
+ * <p>
+ * The limiter also meters the bytes passing through it, whether or not they are limited: the totals are given by
+ * {@link #getTotalBytes()} and {@link #getTotalBytes(String)}, and the current throughputs by
+ * {@link #getThroughput()} and {@link #getThroughput(String)}.
+ * <p>
+ * On default, neither the total nor any host is limited. The buckets of at most {@code 10000} hosts are kept,
+ * and hosts idle for an hour are forgotten.
+ *
+ * @see HttpDownloader#setBandwidthLimiter(BandwidthLimiter)
+ * @see FtpDownloader#setBandwidthLimiter(BandwidthLimiter)
+ */
+public class BandwidthLimiter {
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_DRAINED_BYTES = 16 * 1024;
+    private static final int MAX_HOSTS = 10000;
+
+    private final Bucket global;
+    private final Cache<String, Bucket> hosts = CacheBuilder.newBuilder()
+                                                           .maximumSize(MAX_HOSTS)
+                                                           .expireAfterAccess(1, TimeUnit.HOURS)
+                                                           .build();
+    private final Map<String, Double> hostRates = new ConcurrentHashMap<>();
+    private volatile double defaultHostRate;
+
+    /**
+     * Creates a {@code BandwidthLimiter} which limits neither the total nor any host.
+     */
+    public BandwidthLimiter() {
+        this(0);
+    }
+
+    /**
+     * Creates a {@code BandwidthLimiter} with the given total rate.
+     *
+     * @param globalRate the maximum total rate, in bytes per second, or {@code 0} for no limit.
+     */
+    public BandwidthLimiter(double globalRate) {
+        this.global = new Bucket(globalRate);
+    }
+
+    /**
+     * Wraps the given stream, so that the bytes read from it are limited and metered as bytes of the given host.
+     *
+     * @param in the given stream.
+     * @param host the host the stream reads from.
+     * @return the wrapped stream.
+     */
+    public InputStream wrap(InputStream in, String host) {
+        return new LimitedInputStream(in, bucketOf(host));
+    }
+
+    /**
+     * Wraps the given stream, so that the bytes written to it are limited and metered as bytes of the given host.
+     *
+     * @param out the given stream.
+     * @param host the host the stream is written for.
+     * @return the wrapped stream.
+     */
+    public OutputStream wrap(OutputStream out, String host) {
+        return new LimitedOutputStream(out, bucketOf(host));
+    }
+
+    /**
+     * Wraps the given entity, so that the bytes read from its content are limited and metered as bytes of
+     * the given host. When its content stream is closed, the rest of the content is drained through the limiter.
+     *
+     * @param entity the given entity.
+     * @param host the host the entity is downloaded from.
+     * @return the wrapped entity.
+     */
+    public HttpEntity wrap(HttpEntity entity, String host) {
+        return wrap(entity, host, null);
+    }
+
+    /**
+     * Wraps the given entity, so that the bytes read from its content are limited and metered as bytes of
+     * the given host. When its content stream is closed, at most {@code 16} KiB of the rest of the content are
+     * drained through the limiter, so that its connection can be reused; if more is left, the request is aborted
+     * with the given handle instead, as the underlying stream would drain it unlimited and unmetered.
+     *
+     * @param entity the given entity.
+     * @param host the host the entity is downloaded from.
+     * @param abortHandle the handle aborting the request of the entity, or {@code null} to drain the whole rest.
+     * @return the wrapped entity.
+     */
+    public HttpEntity wrap(HttpEntity entity, String host, final Cancellable abortHandle) {
+        final Bucket bucket = bucketOf(host);
+        return new HttpEntityWrapper(entity) {
+            @Override
+            public InputStream getContent() throws IOException {
+                return new DrainingInputStream(wrappedEntity.getContent(), bucket, abortHandle);
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                try (InputStream in = getContent()) {
+                    byte[] buffer = new byte[CHUNK_SIZE];
+                    for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                        out.write(buffer, 0, n);
+                }
+            }
+        };
+    }
+
+    private Bucket bucketOf(String host) {
+        String key = host == null ? "" : host.toLowerCase(Locale.ROOT);
+        Bucket bucket = hosts.getIfPresent(key);
+        if (bucket == null) {
+            bucket = new Bucket(rateOf(key));
+            Bucket existing = hosts.asMap().putIfAbsent(key, bucket);
+            if (existing != null)
+                bucket = existing;
+        }
+        return bucket;
+    }
+
+    /** Returns the rate of the longest domain the given host belongs to, or the default rate. */
+    private double rateOf(String host) {
+        String domain = host;
+        while (!hostRates.isEmpty()) {
+            Double rate = hostRates.get(domain);
+            if (rate != null)
+                return rate;
+            int dot = domain.indexOf('.');
+            if (dot < 0)
+                break;
+            domain = domain.substring(dot + 1);
+        }
+        return defaultHostRate;
+    }
+
+    /** Takes the given number of bytes from the given bucket, then from the global bucket. */
+    private void take(Bucket bucket, int bytes) {
+        bucket.take(bytes);
+        global.take(bytes);
+    }
+
+    /**
+     * Sets the maximum total rate.
+     *
+     * @param rate the maximum total rate, in bytes per second, or {@code 0} for no limit.
+     */
+    public void setGlobalRate(double rate) {
+        global.setRate(rate);
+    }
+
+    /**
+     * Sets the maximum rate of each host of the given domain, which applies to the domain and all its
+     * subdomains, unless a subdomain has a rate of its own.
+     *
+     * @param domain the given domain, e.g. {@code example.org}.
+     * @param rate the maximum rate of each host, in bytes per second, or {@code 0} for no limit.
+     */
+    public void setHostRate(String domain, double rate) {
+        hostRates.put(domain.toLowerCase(Locale.ROOT), rate);
+        updateHostRates();
+    }
+
+    /**
+     * Sets the maximum rate of each host not belonging to any domain given to {@link #setHostRate(String, double)}.
+     *
+     * @param rate the maximum rate of each host, in bytes per second, or {@code 0} for no limit.
+     */
+    public void setDefaultHostRate(double rate) {
+        this.defaultHostRate = rate;
+        updateHostRates();
+    }
+
+    private void updateHostRates() {
+        for (Map.Entry<String, Bucket> entry : hosts.asMap().entrySet())
+            entry.getValue().setRate(rateOf(entry.getKey()));
+    }
+
+    /** Returns the total number of bytes transferred through this limiter. */
+    public long getTotalBytes() {
+        return global.meter.getTotal();
+    }
+
+    /**
+     * Returns the number of bytes of the given host transferred through this limiter since it was last active.
+     *
+     * @param host the given host.
+     * @return the number of bytes of the given host.
+     */
+    public long getTotalBytes(String host) {
+        Bucket bucket = hosts.getIfPresent(host.toLowerCase(Locale.ROOT));
+        return bucket == null ? 0 : bucket.meter.getTotal();
+    }
+
+    /**
+     * Returns the total throughput, in bytes per second, averaged since the previous call at least a second ago.
+     *
+     * @return the total throughput.
+     */
+    public double getThroughput() {
+        return global.meter.getRate();
+    }
+
+    /**
+     * Returns the throughput of the given host, in bytes per second, averaged since the previous call for the host
+     * at least a second ago.
+     *
+     * @param host the given host.
+     * @return the throughput of the given host.
+     */
+    public double getThroughput(String host) {
+        Bucket bucket = hosts.getIfPresent(host.toLowerCase(Locale.ROOT));
+        return bucket == null ? 0 : bucket.meter.getRate();
+    }
+
+    private static class Bucket {
+        final Meter meter = new Meter();
+        private volatile RateLimiter limiter;
+
+        Bucket(double rate) {
+            setRate(rate);
+        }
+
+        synchronized void setRate(double rate) {
+            if (rate <= 0)
+                limiter = null;
+            else if (limiter == null)
+                limiter = RateLimiter.create(rate);
+            else
+                limiter.setRate(rate);
+        }
+
+        void take(int bytes) {
+            meter.add(bytes);
+            RateLimiter limiter = this.limiter;
+            if (limiter != null)
+                limiter.acquire(bytes);
+        }
+    }
+
+    private static class Meter {
+        private final AtomicLong total = new AtomicLong();
+        private long windowStart = System.nanoTime();
+        private long windowTotal;
+        private double rate;
+
+        void add(long bytes) {
+            total.addAndGet(bytes);
+        }
+
+        long getTotal() {
+            return total.get();
+        }
+
+        synchronized double getRate() {
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+            if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+                long current = total.get();
+                rate = (current - windowTotal) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+                windowStart = now;
+                windowTotal = current;
+            }
+            return rate;
+        }
+    }
+
+    /** Counts the bytes read, and takes them from the buckets once they add up to a chunk. */
+    private class LimitedInputStream extends FilterInputStream {
+        private final Bucket bucket;
+        private int pending;
+
+        LimitedInputStream(InputStream in, Bucket bucket) {
+            super(in);
+            this.bucket = bucket;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0)
+                count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0)
+                count(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0)
+                count((int) Math.min(skipped, Integer.MAX_VALUE));
+            return skipped;
+        }
+
+        private void count(int bytes) {
+            pending += bytes;
+            if (pending >= CHUNK_SIZE) {
+                take(bucket, pending);
+                pending = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (pending > 0) {
+                bucket.meter.add(pending);
+                global.meter.add(pending);
+                pending = 0;
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Drains the rest of the content of an entity through the buckets when closed, or aborts its request if
+     * more than {@code 16} KiB are left.
+     */
+    private class DrainingInputStream extends LimitedInputStream {
+        private final Cancellable abortHandle;
+        private boolean closed;
+
+        DrainingInputStream(InputStream in, Bucket bucket, Cancellable abortHandle) {
+            super(in, bucket);
+            this.abortHandle = abortHandle;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+
+            boolean drained = false;
+            try {
+                byte[] buffer = new byte[4096];
+                long remaining = abortHandle == null ? Long.MAX_VALUE : MAX_DRAINED_BYTES;
+                for (int n = read(buffer); n >= 0; n = read(buffer)) {
+                    remaining -= n;
+                    if (remaining < 0)
+                        break;
+                }
+                drained = remaining >= 0;
+            } catch (IOException e) {
+                // Aborted below
+            }
+            if (!drained && abortHandle != null)
+                abortHandle.cancel();
+            try {
+                super.close();
+            } catch (IOException e) {
+                if (drained)
+                    throw e;
+            }
+        }
+    }
+
+    /** Counts the bytes written, and takes them from the buckets once they add up to a chunk. */
+    private class LimitedOutputStream extends FilterOutputStream {
+        private final Bucket bucket;
+        private int pending;
+
+        LimitedOutputStream(OutputStream out, Bucket bucket) {
+            super(out);
+            this.bucket = bucket;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count(len);
+        }
+
+        private void count(int bytes) {
+            pending += bytes;
+            if (pending >= CHUNK_SIZE) {
+                take(bucket, pending);
+                pending = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (pending > 0) {
+                bucket.meter.add(pending);
+                global.meter.add(pending);
+                pending = 0;
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.mrdai.crawly.downloader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DnsResolver} which caches the addresses of resolved hosts, as well as the hosts which failed to
+ * resolve, and which can resolve hosts in the background ahead of time via {@link #prefetch(String)}.
+ * <p>
+ * The cache holds a bounded number of hosts and evicts the least recently used ones when it is full. Resolved
+ * addresses live for the given time-to-live; failures live for the given negative time-to-live, so that a host
+ * whose resolution failed is not looked up again on every request. As the JVM does not expose the TTLs of DNS
+ * records, the same time-to-live applies to every host.
+ * <p>
+ * A lookup of a host which is being prefetched waits for the prefetch instead of resolving the host again.
+ * Prefetches are run by a small pool of daemon threads; prefetches submitted while too many are pending are
+ * dropped, in which case the host is resolved when it is first connected to.
+ * <p>
+ * On default, hosts are resolved by the {@link SystemDefaultDnsResolver}, the cache holds {@code 10000} hosts,
+ * addresses live for {@code 5} minutes, failures live for {@code 30} seconds, and prefetches are run by
+ * {@code 4} threads with at most {@code 10000} pending prefetches.
+ *
+ * @see HttpDownloader#HttpDownloader(int, int, long, long, DnsResolver)
+ * @see com.mrdai.crawly.scheduler.DnsPrefetchScheduler
+ */
+public class CachingDnsResolver implements DnsResolver, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(CachingDnsResolver.class);
+
+    private static final int DEFAULT_MAX_HOSTS = 10000;
+    private static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+    private static final long DEFAULT_NEGATIVE_TTL = TimeUnit.SECONDS.toMillis(30);
+    private static final int DEFAULT_PREFETCH_THREADS = 4;
+    private static final int MAX_PENDING_PREFETCHES = 10000;
+
+    private final DnsResolver resolver;
+    private final long ttl;
+    private final long negativeTtl;
+    private final Cache<String, Entry> cache;
+    private final ConcurrentMap<String, FutureTask<Entry>> prefetches = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a {@code CachingDnsResolver} with the default settings.
+     */
+    public CachingDnsResolver() {
+        this(SystemDefaultDnsResolver.INSTANCE, DEFAULT_MAX_HOSTS, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL,
+             DEFAULT_PREFETCH_THREADS);
+    }
+
+    /**
+     * Creates a {@code CachingDnsResolver} which caches the results of the given underlying {@code DnsResolver}.
+     *
+     * @param resolver the given underlying {@code DnsResolver}.
+     * @param maxHosts the maximum number of hosts held in the cache.
+     * @param ttl the time-to-live of resolved addresses, in milliseconds.
+     * @param negativeTtl the time-to-live of failed resolutions, in milliseconds.
+     * @param prefetchThreads the number of threads resolving hosts in the background.
+     */
+    public CachingDnsResolver(DnsResolver resolver, int maxHosts, long ttl, long negativeTtl, int prefetchThreads) {
+        this.resolver = resolver;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxHosts).build();
+        this.executor = new ThreadPoolExecutor(prefetchThreads, prefetchThreads, 0, TimeUnit.MILLISECONDS,
+                                               new LinkedBlockingQueue<Runnable>(MAX_PENDING_PREFETCHES),
+                                               new ThreadFactoryBuilder().setDaemon(true)
+                                                                         .setNameFormat("dns-prefetch-%d")
+                                                                         .build());
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        Entry entry = lookup(host);
+        if (entry == null) {
+            FutureTask<Entry> prefetch = prefetches.get(host);
+            entry = prefetch == null ? load(host) : await(prefetch, host);
+        }
+        if (entry.addresses == null)
+            throw new UnknownHostException(host);
+        return entry.addresses.clone();
+    }
+
+    /**
+     * Resolves the given host in the background, unless it is already cached or being resolved.
+     * IP address literals are ignored.
+     *
+     * @param host the given host.
+     */
+    public void prefetch(final String host) {
+        if (host == null || InetAddresses.isInetAddress(host) || lookup(host) != null)
+            return;
+        FutureTask<Entry> task = new FutureTask<>(new Callable<Entry>() {
+            @Override
+            public Entry call() {
+                try {
+                    return load(host);
+                } finally {
+                    prefetches.remove(host);
+                }
+            }
+        });
+        if (prefetches.putIfAbsent(host, task) != null)
+            return;
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            prefetches.remove(host);
+            LOG.debug("Too many pending prefetches, dropping prefetch of {}.", host);
+        }
+    }
+
+    /**
+     * Returns if the given host is cached, whether it was resolved successfully or not.
+     *
+     * @param host the given host.
+     * @return {@code true} if the given host is cached; {@code false} otherwise.
+     */
+    public boolean isCached(String host) {
+        return lookup(host) != null;
+    }
+
+    /** Returns the number of hosts currently held in the cache, including expired ones not yet evicted. */
+    public long getCachedCount() {
+        return cache.size();
+    }
+
+    /** Returns the cached entry of the given host if it has not expired. */
+    private Entry lookup(String host) {
+        Entry entry = cache.getIfPresent(host);
+        if (entry == null)
+            return null;
+        if (entry.expiresAt > System.currentTimeMillis())
+            return entry;
+        cache.invalidate(host);
+        return null;
+    }
+
+    private Entry load(String host) {
+        Entry entry;
+        try {
+            entry = new Entry(resolver.resolve(host), System.currentTimeMillis() + ttl);
+        } catch (UnknownHostException e) {
+            LOG.debug("Failed to resolve host {}.", host);
+            entry = new Entry(null, System.currentTimeMillis() + negativeTtl);
+        }
+        cache.put(host, entry);
+        return entry;
+    }
+
+    private Entry await(FutureTask<Entry> prefetch, String host) {
+        try {
+            return prefetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.warn("Prefetch of host " + host + " failed.", e.getCause());
+        }
+        return load(host);
+    }
+
+    /**
+     * Stops the prefetching threads. Pending prefetches are discarded, but the resolver can still be used
+     * to resolve hosts on demand.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (FutureTask<Entry> prefetch : prefetches.values())
+            prefetch.cancel(false);
+        prefetches.clear();
+    }
+
+    private static class Entry {
+        final InetAddress[] addresses;
+        final long expiresAt;
+
+        Entry(InetAddress[] addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.mrdai.crawly.downloader;
+
+/**
+ * A circuit breaker guarding the requests to a single host, which stops sending requests to the host once
+ * too many of the recent ones have failed, so that download threads do not wait on a host known to be down.
+ * <p>
+ * The breaker starts {@link State#CLOSED closed}, and records whether each of the last {@code windowSize}
+ * requests failed, where a request fails if it throws, returns a server error or takes longer than the slow-call
+ * threshold. Once at least {@code 5} requests, or {@code windowSize} if it is smaller, have been recorded and
+ * the proportion of failures reaches the failure-rate threshold, the breaker opens.
+ * <p>
+ * While {@link State#OPEN open}, every request is rejected. After the open duration, the breaker becomes
+ * {@link State#HALF_OPEN half-open} and lets a single probe request through: the breaker closes if the probe
+ * succeeds, or opens again if it fails. This class is thread-safe.
+ *
+ * @see HttpDownloader#setCircuitBreakers(int, double, long, long)
+ */
+public class CircuitBreaker {
+    private static final int MIN_CALLS = 5;
+
+    /** The states of a {@code CircuitBreaker}. */
+    public enum State {
+        /** Requests are sent, and their outcomes recorded. */
+        CLOSED,
+        /** Requests are rejected. */
+        OPEN,
+        /** A single probe request is sent to decide whether to close the breaker. */
+        HALF_OPEN
+    }
+
+    private final boolean[] window;
+    private final double failureRateThreshold;
+    private final long slowCallThreshold;
+    private final long openDuration;
+
+    private State state = State.CLOSED;
+    private int index;
+    private int count;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    /**
+     * Creates a closed {@code CircuitBreaker}.
+     *
+     * @param windowSize the number of recent requests whose outcomes are recorded.
+     * @param failureRateThreshold the proportion of failed requests, between {@code 0} and {@code 1},
+     *                             at which the breaker opens.
+     * @param slowCallThreshold the time, in milliseconds, after which a request counts as failed.
+     * @param openDuration the time, in milliseconds, the breaker stays open before letting a probe through.
+     * @throws IllegalArgumentException if the window size is not positive or the threshold is out of bounds.
+     */
+    public CircuitBreaker(int windowSize, double failureRateThreshold, long slowCallThreshold, long openDuration) {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("The window size must be positive.");
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1)
+            throw new IllegalArgumentException("The failure rate threshold must be within (0, 1].");
+        this.window = new boolean[windowSize];
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallThreshold = slowCallThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Returns if a request may be sent now. A request allowed by this method must have its outcome recorded
+     * via {@link #record(boolean, long)}.
+     *
+     * @return {@code true} if a request may be sent; {@code false} if it must be rejected.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED)
+            return true;
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDuration)
+                return false;
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+
+        // Half-open: let a single probe through
+        if (probing)
+            return false;
+        probing = true;
+        return true;
+    }
+
+    /**
+     * Records the outcome of a request allowed by {@link #tryAcquire()}.
+     *
+     * @param error {@code true} if the request threw or returned a server error.
+     * @param latency the time the request took, in milliseconds.
+     */
+    public synchronized void record(boolean error, long latency) {
+        boolean failed = error || latency > slowCallThreshold;
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            if (failed)
+                open();
+            else
+                close();
+            return;
+        }
+        if (state == State.OPEN)
+            return;
+
+        if (count == window.length) {
+            if (window[index])
+                failures--;
+        } else {
+            count++;
+        }
+        window[index] = failed;
+        if (failed)
+            failures++;
+        index = (index + 1) % window.length;
+
+        if (count >= Math.min(MIN_CALLS, window.length) && failures >= failureRateThreshold * count)
+            open();
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        index = 0;
+        count = 0;
+        failures = 0;
+    }
+
+    /**
+     * Returns the time, in milliseconds, after which a rejected request may be tried again: the rest of the open
+     * duration if the breaker is open, or the slow-call threshold if a probe is in flight, by when the probe has
+     * either succeeded or counted as failed.
+     *
+     * @return the time after which a rejected request may be tried again, or {@code 0} if it may be tried now.
+     */
+    public synchronized long getRetryDelay() {
+        if (state == State.OPEN)
+            return Math.max(0, openDuration - (System.currentTimeMillis() - openedAt));
+        return state == State.HALF_OPEN && probing ? slowCallThreshold : 0;
+    }
+
+    /** Returns the current state of this breaker. */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration)
+            return State.HALF_OPEN;
+        return state;
+    }
+}
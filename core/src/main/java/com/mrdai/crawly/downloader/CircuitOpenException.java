@@ -0,0 +1,35 @@
+package com.mrdai.crawly.downloader;
+
+import java.io.IOException;
+
+/**
+ * Signals that a request has been rejected without being sent, as the {@link CircuitBreaker} of its host is open.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+    private final long retryDelay;
+
+    /**
+     * Creates a {@code CircuitOpenException} for the given host.
+     *
+     * @param host the host whose circuit breaker is open.
+     * @param retryDelay the time, in milliseconds, after which the request may be tried again.
+     */
+    public CircuitOpenException(String host, long retryDelay) {
+        super("The circuit breaker of host " + host + " is open for another " + retryDelay + "ms.");
+        this.host = host;
+        this.retryDelay = retryDelay;
+    }
+
+    /** Returns the host whose circuit breaker is open. */
+    public String getHost() {
+        return host;
+    }
+
+    /** Returns the time, in milliseconds, after which the rejected request may be tried again. */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+}
@@ -0,0 +1,272 @@
+package com.mrdai.crawly.downloader;
+
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.Response;
+import com.mrdai.crawly.network.http.BasicHttpResponse;
+import com.mrdai.crawly.network.http.FileDownloadRequest;
+import com.mrdai.crawly.network.http.HttpMethods;
+import com.mrdai.crawly.network.http.HttpRequest;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link Downloader} which coalesces identical requests in flight through the given underlying
+ * {@code Downloader}, so that a URL fetched by several download threads at once costs a single network call.
+ * <p>
+ * Two {@link HttpRequest}s are identical if they have the same method, URI and headers; only {@code GET} and
+ * {@code HEAD} requests are coalesced, and {@link FileDownloadRequest}s never are. While a request is in flight,
+ * later identical requests wait for it instead of being downloaded. Once it completes, its body is read into
+ * memory, and every waiting request gets a {@link BasicHttpResponse} of its own, sharing the status, headers and
+ * body of the downloaded response; if the download throws, every waiting request throws the same exception.
+ * A request which waited for nobody gets the downloaded response as is.
+ * <p>
+ * A body cannot be shared if it is longer than the maximum shared size, or the underlying downloader does not
+ * return a {@code BasicHttpResponse}, in which case every waiting request is downloaded on its own. On default,
+ * bodies of at most {@code 8} MiB are shared. Requests other than {@code HttpRequest}s are downloaded as is.
+ * This class is thread-safe.
+ */
+public class CoalescingDownloader implements Downloader, Prewarmable, ContentPolicyAware {
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingDownloader.class);
+
+    private final Downloader downloader;
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private long maxSharedSize = 8 * 1024 * 1024;
+
+    /**
+     * Creates a {@code CoalescingDownloader} with the given underlying {@code Downloader}.
+     *
+     * @param downloader the given underlying {@code Downloader}.
+     */
+    public CoalescingDownloader(Downloader downloader) {
+        this.downloader = downloader;
+    }
+
+    @Override
+    public boolean supports(Request request) {
+        return downloader.supports(request);
+    }
+
+    @Override
+    public Response download(Request request) throws IOException {
+        String key = keyOf(request);
+        if (key == null)
+            return downloader.download(request);
+
+        Flight flight = new Flight();
+        Flight existing = flights.putIfAbsent(key, flight);
+        if (existing != null)
+            return follow(existing, request);
+
+        Response response;
+        try {
+            response = downloader.download(request);
+        } catch (IOException | RuntimeException e) {
+            flights.remove(key, flight);
+            flight.land();
+            flight.complete(null, e);
+            throw e;
+        }
+        flights.remove(key, flight);
+        int followers = flight.land();
+        if (followers == 0) {
+            flight.complete(null, null);
+            return response;
+        }
+
+        LOG.debug("Sharing the response to {} with {} identical requests.", request, followers);
+        Shared shared = null;
+        try {
+            shared = share(response);
+        } finally {
+            flight.complete(shared, null);
+        }
+        return shared == null ? response : shared.copyFor(request);
+    }
+
+    /** Waits for the given flight, and returns a copy of its response, or downloads the request on its own. */
+    private Response follow(Flight flight, Request request) throws IOException {
+        if (flight.join()) {
+            Shared shared = flight.await();
+            if (shared != null)
+                return shared.copyFor(request);
+        }
+        return downloader.download(request);
+    }
+
+    /**
+     * Reads the body of the given response into memory, and returns it along with the rest of the response;
+     * returns {@code null} if the response cannot be shared, in which case its body is left readable.
+     */
+    private Shared share(Response response) throws IOException {
+        if (!(response instanceof BasicHttpResponse))
+            return null;
+        BasicHttpResponse hResponse = (BasicHttpResponse) response;
+        HttpEntity entity = hResponse.getEntity();
+        if (entity == null)
+            return new Shared(hResponse, null);
+        if (entity.getContentLength() > maxSharedSize)
+            return null;
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(
+            entity.getContentLength() >= 0 ? (int) entity.getContentLength() : 8192);
+        InputStream in = entity.getContent();
+        byte[] buffer = new byte[8192];
+        try {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                body.write(buffer, 0, n);
+                if (body.size() > maxSharedSize) {
+                    // Hands what has been read back to the response, followed by the rest of the body
+                    InputStreamEntity rest = new InputStreamEntity(
+                        new SequenceInputStream(new ByteArrayInputStream(body.toByteArray()), in));
+                    rest.setContentType(entity.getContentType());
+                    rest.setContentEncoding(entity.getContentEncoding());
+                    hResponse.setEntity(rest);
+                    return null;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            hResponse.close();
+            throw e;
+        }
+        hResponse.close();
+
+        ByteArrayEntity shared = new ByteArrayEntity(body.toByteArray());
+        shared.setContentType(entity.getContentType());
+        shared.setContentEncoding(entity.getContentEncoding());
+        return new Shared(hResponse, shared);
+    }
+
+    /**
+     * Returns the key identifying the given request; returns {@code null} if the request cannot be coalesced.
+     */
+    private static String keyOf(Request request) {
+        if (!(request instanceof HttpRequest) || request instanceof FileDownloadRequest)
+            return null;
+        HttpRequest hRequest = (HttpRequest) request;
+        String method = hRequest.getMethod();
+        if (!HttpMethods.GET.equals(method) && !HttpMethods.HEAD.equals(method))
+            return null;
+        StringBuilder key = new StringBuilder(method).append(' ')
+                                                     .append(hRequest.getRequestTarget().toASCIIString());
+        for (Header header : hRequest.getAllHeaders())
+            key.append('\n').append(header.getName()).append(": ").append(header.getValue());
+        return key.toString();
+    }
+
+    /**
+     * Sets the maximum size of a body shared between identical requests, in bytes.
+     *
+     * @param maxSharedSize the maximum size of a shared body.
+     */
+    public void setMaxSharedSize(long maxSharedSize) {
+        this.maxSharedSize = maxSharedSize;
+    }
+
+    /** Returns the number of distinct requests currently in flight. */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    @Override
+    public void prewarm(Collection<? extends Request> requests, long timeout) {
+        if (downloader instanceof Prewarmable)
+            ((Prewarmable) downloader).prewarm(requests, timeout);
+    }
+
+    @Override
+    public ContentPolicy getContentPolicy() {
+        return downloader instanceof ContentPolicyAware ? ((ContentPolicyAware) downloader).getContentPolicy() : null;
+    }
+
+    @Override
+    public void setContentPolicy(ContentPolicy contentPolicy) {
+        if (downloader instanceof ContentPolicyAware)
+            ((ContentPolicyAware) downloader).setContentPolicy(contentPolicy);
+    }
+
+    @Override
+    public void close() throws IOException {
+        downloader.close();
+    }
+
+    /** A request in flight, along with the identical requests waiting for it. */
+    private static class Flight {
+        private int followers;
+        private boolean landed;
+        private boolean completed;
+        private Shared shared;
+        private Exception error;
+
+        /** Registers a waiting request; returns {@code false} if it is too late to share the response. */
+        synchronized boolean join() {
+            if (landed)
+                return false;
+            followers++;
+            return true;
+        }
+
+        /** Stops accepting waiting requests, and returns their number. */
+        synchronized int land() {
+            landed = true;
+            return followers;
+        }
+
+        synchronized void complete(Shared shared, Exception error) {
+            this.shared = shared;
+            this.error = error;
+            this.completed = true;
+            notifyAll();
+        }
+
+        synchronized Shared await() throws IOException {
+            while (!completed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for an identical request.");
+                }
+            }
+            if (error instanceof IOException)
+                throw (IOException) error;
+            if (error != null)
+                throw (RuntimeException) error;
+            return shared;
+        }
+    }
+
+    /** A response whose body has been read into memory, and can be handed to any number of requests. */
+    private static class Shared {
+        private final BasicHttpResponse response;
+        private final HttpEntity entity;
+
+        Shared(BasicHttpResponse response, HttpEntity entity) {
+            this.response = response;
+            this.entity = entity;
+        }
+
+        BasicHttpResponse copyFor(Request request) {
+            BasicHttpResponse copy = new BasicHttpResponse(request, response.getProtocolVersion(),
+                                                           response.getStatusCode(), response.getReason());
+            copy.setHeaders(response.getAllHeaders());
+            copy.setEntity(entity);
+            copy.setTransferStats(response.getTransferStats());
+            copy.setRedirectChain(response.getRedirectChain());
+            return copy;
+        }
+    }
+}
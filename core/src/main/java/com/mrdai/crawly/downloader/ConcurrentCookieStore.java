@@ -0,0 +1,264 @@
+package com.mrdai.crawly.downloader;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.ClientCookie;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe {@link CookieStore} which indexes its cookies by domain, then by name and path, so that the
+ * cookies of a request are found without scanning the whole store nor locking it.
+ * <p>
+ * Given to {@link HttpDownloader#setCookieStore(ConcurrentCookieStore)}, the store hands each request only the
+ * cookies of its host and of the parent domains of its host, via {@link #getCookies(String)}, and HttpClient picks
+ * the matching ones among them. Expired cookies are evicted as they are encountered, and all at once by
+ * {@link #clearExpired(Date)}.
+ * <p>
+ * A store opened with a backing file loads the cookies saved in the file, and saves every unexpired cookie back to
+ * the file on {@link #save()} and {@link #close()}, session cookies included, so that a crawl can resume logged in.
+ * The file is replaced as a whole, thus a crash while saving leaves the previous cookies intact.
+ *
+ * @see HttpDownloader#setCookieStore(ConcurrentCookieStore)
+ */
+public class ConcurrentCookieStore implements CookieStore, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentCookieStore.class);
+
+    private static final String[] ATTRIBUTES = {
+        ClientCookie.DOMAIN_ATTR, ClientCookie.PATH_ATTR, ClientCookie.EXPIRES_ATTR, ClientCookie.MAX_AGE_ATTR,
+        ClientCookie.SECURE_ATTR, ClientCookie.VERSION_ATTR, ClientCookie.COMMENT_ATTR, "httponly"
+    };
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Cookie>> domains = new ConcurrentHashMap<>();
+    private final File file;
+
+    /**
+     * Creates an in-memory {@code ConcurrentCookieStore}.
+     */
+    public ConcurrentCookieStore() {
+        this.file = null;
+    }
+
+    /**
+     * Opens the store backed by the file with the given pathname, loading the cookies saved in the file if
+     * it exists.
+     *
+     * @param pathname the pathname of the backing file.
+     * @throws IOException if the file cannot be read.
+     */
+    public ConcurrentCookieStore(String pathname) throws IOException {
+        this.file = new File(pathname);
+        if (file.exists())
+            load();
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        if (cookie == null)
+            return;
+        String domain = domainOf(cookie.getDomain());
+        String key = keyOf(cookie);
+        if (cookie.isExpired(new Date())) {
+            Map<String, Cookie> cookies = domains.get(domain);
+            if (cookies != null)
+                cookies.remove(key);
+            return;
+        }
+
+        ConcurrentMap<String, Cookie> cookies = domains.get(domain);
+        if (cookies == null) {
+            cookies = new ConcurrentHashMap<>();
+            ConcurrentMap<String, Cookie> existing = domains.putIfAbsent(domain, cookies);
+            if (existing != null)
+                cookies = existing;
+        }
+        cookies.put(key, cookie);
+    }
+
+    /**
+     * Returns the unexpired cookies which may be sent to the given host, i.e. those of the host and of its
+     * parent domains. The cookies are not matched against the path nor the other attributes of a request.
+     *
+     * @param host the given host.
+     * @return the unexpired cookies of the host and its parent domains.
+     */
+    public List<Cookie> getCookies(String host) {
+        List<Cookie> result = new ArrayList<>();
+        if (domains.isEmpty())
+            return result;
+        Date now = new Date();
+        String domain = domainOf(host);
+        while (true) {
+            ConcurrentMap<String, Cookie> cookies = domains.get(domain);
+            if (cookies != null)
+                collect(cookies, now, result);
+            int dot = domain.indexOf('.');
+            if (dot < 0)
+                return result;
+            domain = domain.substring(dot + 1);
+        }
+    }
+
+    /** Returns every unexpired cookie of this store. */
+    @Override
+    public List<Cookie> getCookies() {
+        List<Cookie> result = new ArrayList<>();
+        Date now = new Date();
+        for (ConcurrentMap<String, Cookie> cookies : domains.values())
+            collect(cookies, now, result);
+        return result;
+    }
+
+    /** Adds the unexpired cookies of the given map to the given list, evicting the expired ones. */
+    private static void collect(ConcurrentMap<String, Cookie> cookies, Date now, List<Cookie> result) {
+        for (Map.Entry<String, Cookie> entry : cookies.entrySet()) {
+            Cookie cookie = entry.getValue();
+            if (cookie.isExpired(now))
+                cookies.remove(entry.getKey(), cookie);
+            else
+                result.add(cookie);
+        }
+    }
+
+    @Override
+    public boolean clearExpired(Date date) {
+        if (date == null)
+            return false;
+        boolean removed = false;
+        for (ConcurrentMap<String, Cookie> cookies : domains.values()) {
+            for (Iterator<Cookie> iter = cookies.values().iterator(); iter.hasNext(); ) {
+                if (iter.next().isExpired(date)) {
+                    iter.remove();
+                    removed = true;
+                }
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        domains.clear();
+    }
+
+    /** Returns the number of cookies in this store, expired ones included until they are evicted. */
+    public int size() {
+        int size = 0;
+        for (Map<String, Cookie> cookies : domains.values())
+            size += cookies.size();
+        return size;
+    }
+
+    private static String domainOf(String domain) {
+        if (domain == null)
+            return "";
+        domain = domain.toLowerCase(Locale.ROOT);
+        return domain.startsWith(".") ? domain.substring(1) : domain;
+    }
+
+    private static String keyOf(Cookie cookie) {
+        return cookie.getName() + ';' + (cookie.getPath() == null ? "/" : cookie.getPath());
+    }
+
+    private void load() throws IOException {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                BasicClientCookie cookie = new BasicClientCookie(in.readUTF(), in.readUTF());
+                cookie.setDomain(emptyToNull(in.readUTF()));
+                cookie.setPath(emptyToNull(in.readUTF()));
+                long expiry = in.readLong();
+                cookie.setExpiryDate(expiry < 0 ? null : new Date(expiry));
+                cookie.setSecure(in.readBoolean());
+                cookie.setVersion(in.readInt());
+                for (int i = in.readUnsignedByte(); i > 0; i--)
+                    cookie.setAttribute(in.readUTF(), in.readUTF());
+                addCookie(cookie);
+                count++;
+            }
+        } catch (EOFException e) {
+            LOG.debug("Loaded {} cookies from {}.", count, file);
+        }
+    }
+
+    /**
+     * Saves every unexpired cookie to the backing file, replacing its previous content.
+     *
+     * @throws IOException if the file cannot be written.
+     * @throws IllegalStateException if the store has no backing file.
+     */
+    public synchronized void save() throws IOException {
+        if (file == null)
+            throw new IllegalStateException("The cookie store has no backing file.");
+        File saved = new File(file.getPath() + ".save");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(saved)))) {
+            for (Cookie cookie : getCookies())
+                write(out, cookie);
+        }
+        if (!saved.renameTo(file) && !(file.delete() && saved.renameTo(file)))
+            throw new IOException("Failed to replace " + file + " with the saved cookies.");
+    }
+
+    private static void write(DataOutputStream out, Cookie cookie) throws IOException {
+        out.writeUTF(cookie.getName());
+        out.writeUTF(nullToEmpty(cookie.getValue()));
+        out.writeUTF(nullToEmpty(cookie.getDomain()));
+        out.writeUTF(nullToEmpty(cookie.getPath()));
+        out.writeLong(cookie.getExpiryDate() == null ? -1 : cookie.getExpiryDate().getTime());
+        out.writeBoolean(cookie.isSecure());
+        out.writeInt(cookie.getVersion());
+
+        // Attributes tell host-only cookies from domain cookies, among others
+        List<String> attributes = new ArrayList<>();
+        if (cookie instanceof ClientCookie) {
+            for (String name : ATTRIBUTES) {
+                if (((ClientCookie) cookie).containsAttribute(name))
+                    attributes.add(name);
+            }
+        }
+        out.writeByte(attributes.size());
+        for (String name : attributes) {
+            out.writeUTF(name);
+            out.writeUTF(nullToEmpty(((ClientCookie) cookie).getAttribute(name)));
+        }
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+
+    /**
+     * Saves the cookies to the backing file, if any.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null)
+            save();
+    }
+}
@@ -0,0 +1,82 @@
+package com.mrdai.crawly.downloader;
+
+import com.mrdai.crawly.processor.ContentRequirements;
+import com.mrdai.crawly.processor.PageProcessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The content types and lengths of the responses wanted by a chain of {@link PageProcessor}s, derived from
+ * their {@link ContentRequirements}, which lets {@link HttpDownloader} abort unwanted transfers early.
+ * <p>
+ * A response is wanted if at least one processor accepts both its media type and its length. A processor which
+ * does not implement {@code ContentRequirements} accepts every response, in which case every response is wanted.
+ * Responses without {@code Content-Type} are always wanted, and so are responses of unknown length as far as
+ * the length is concerned.
+ *
+ * @see HttpDownloader#setContentPolicy(ContentPolicy)
+ */
+public class ContentPolicy {
+    /** The policy wanting every response. */
+    public static final ContentPolicy ACCEPT_ALL = new ContentPolicy(Collections.<ContentRequirements>emptyList());
+
+    private final List<ContentRequirements> requirements;
+
+    private ContentPolicy(List<ContentRequirements> requirements) {
+        this.requirements = requirements;
+    }
+
+    /**
+     * Creates the {@code ContentPolicy} of the given processors.
+     *
+     * @param processors the given processors.
+     * @return the {@code ContentPolicy} of the given processors.
+     */
+    public static ContentPolicy of(List<PageProcessor> processors) {
+        List<ContentRequirements> requirements = new ArrayList<>(processors.size());
+        for (PageProcessor processor : processors) {
+            if (!(processor instanceof ContentRequirements))
+                return ACCEPT_ALL;
+            requirements.add((ContentRequirements) processor);
+        }
+        return new ContentPolicy(requirements);
+    }
+
+    /**
+     * Returns if any processor wants a response with the given {@code Content-Type} and {@code Content-Length}.
+     *
+     * @param contentType the value of the {@code Content-Type} header, or {@code null} if there is none.
+     * @param contentLength the value of the {@code Content-Length} header, or a negative number if unknown.
+     * @return {@code true} if the response is wanted; {@code false} otherwise.
+     */
+    public boolean accepts(String contentType, long contentLength) {
+        if (this == ACCEPT_ALL || contentType == null)
+            return true;
+        String mimeType = mimeTypeOf(contentType);
+        for (ContentRequirements requirement : requirements) {
+            long max = requirement.getMaxContentLength();
+            if (max >= 0 && contentLength > max)
+                continue;
+            for (String accepted : requirement.getAcceptedContentTypes()) {
+                if (matches(accepted.toLowerCase(Locale.ROOT), mimeType))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static String mimeTypeOf(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        String mimeType = semicolon < 0 ? contentType : contentType.substring(0, semicolon);
+        return mimeType.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean matches(String accepted, String mimeType) {
+        if (accepted.equals("*/*") || accepted.equals(mimeType))
+            return true;
+        return accepted.endsWith("/*") && mimeType.startsWith(accepted.substring(0, accepted.length() - 1));
+    }
+}
@@ -0,0 +1,24 @@
+package com.mrdai.crawly.downloader;
+
+/**
+ * A {@link Downloader} which can skip the response bodies no page processor wants, as decided by a
+ * {@link ContentPolicy}.
+ * <p>
+ * The {@link com.mrdai.crawly.Crawler Crawler} sets the policy of its processors on every such downloader which
+ * has none when it starts. Downloaders wrapping another {@code Downloader} forward both methods to it.
+ */
+public interface ContentPolicyAware {
+    /**
+     * Returns the {@code ContentPolicy} deciding which response bodies are worth reading.
+     *
+     * @return the {@code ContentPolicy}, or {@code null} if there is none.
+     */
+    ContentPolicy getContentPolicy();
+
+    /**
+     * Sets the {@code ContentPolicy} deciding which response bodies are worth reading.
+     *
+     * @param contentPolicy the {@code ContentPolicy}, or {@code null} to read every body.
+     */
+    void setContentPolicy(ContentPolicy contentPolicy);
+}
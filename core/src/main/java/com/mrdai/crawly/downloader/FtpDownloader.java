@@ -1,5 +1,7 @@
 package com.mrdai.crawly.downloader;
 
+import com.mrdai.crawly.network.DownloadedFile;
+import com.mrdai.crawly.network.FileTransfer;
 import com.mrdai.crawly.network.Request;
 import com.mrdai.crawly.network.Response;
 import com.mrdai.crawly.network.ftp.*;
@@ -9,15 +11,25 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-public class FtpDownloader implements Downloader {
+public class FtpDownloader implements Downloader, Prewarmable {
     private static final Logger LOG = LoggerFactory.getLogger(FtpDownloader.class);
 
     private final Map<InetSocketAddress, FTPClientWrapper> wrappers = new HashMap<>();
     private final Thread keepAliveThread;
+    private BandwidthLimiter bandwidthLimiter;
 
     public FtpDownloader() {
         this(0);
@@ -38,45 +50,12 @@ public class FtpDownloader implements Downloader {
     public Response download(Request request) throws IOException {
         FtpCommand command = (FtpCommand) request;
         InetSocketAddress host = command.getHost();
-        FTPClient client;
-        FTPClientWrapper wrapper;
-
-        // Synchronize on wrappers map to avoid duplicate constructions
-        synchronized (wrappers) {
-            if (!wrappers.containsKey(host)) {
-                LOG.debug("Predefined constructor for host {} not found, using default FTPClient.", host);
-                client = new FTPClient();
-                client.enterLocalPassiveMode();
-                wrapper = new FTPClientWrapper(client, null);
-                wrappers.put(host, wrapper);
-            } else {
-                wrapper = wrappers.get(host);
-            }
-        }
+        FTPClientWrapper wrapper = wrapperOf(host);
 
         // Synchronize on single wrapper to avoid concurrent usage of single FTPClient,
         // which is not thread safe.
         synchronized (wrapper) {
-            if (wrapper.client == null) {
-                LOG.debug("Constructing FTPClient for host {} with predefined constructor.", host);
-                client = wrapper.configurer.construct();
-                wrapper.client = client;
-            } else {
-                client = wrapper.client;
-            }
-
-            if (!client.isConnected()) {
-                LOG.info("The FTPClient is not connected. Connecting to {}.", host);
-                client.connect(host.getAddress(), host.getPort());
-                LOG.debug("Log in anonymously.");
-                client.login("anonymous", "https://github.com/Mr-Dai/Crawly");
-                LOG.debug("Server returned \"{}\".",  client.getReplyString().trim());
-                if (!FTPReply.isPositiveCompletion(client.getReplyCode())) {
-                    LOG.warn("Failed to connect to target host {}. The server reply is: {} {}",
-                        host, client.getReplyCode(), client.getReplyString());
-                } else
-                    LOG.info("Connected to {}:{}.", client.getRemoteAddress(), client.getRemotePort());
-            }
+            FTPClient client = connect(wrapper, host);
 
             try {
                 // Commands whose replies can be parsed into array of `FTPFile`s
@@ -100,36 +79,40 @@ public class FtpDownloader implements Downloader {
                 }
 
                 // Subclasses of `FtpCommand`
-                if (command instanceof RetrieveCommand) {
+                if (command instanceof RetrieveCommand && ((RetrieveCommand) command).getLocalStream() == null) {
+                    LOG.debug("Issue file retrieve command to local file: {}", command);
+                    return retrieveToFile(client, (RetrieveCommand) command, host.getHostString());
+                } else if (command instanceof RetrieveCommand) {
                     LOG.debug("Issue file retrieve command: {}", command);
                     RetrieveCommand rCommand = (RetrieveCommand) command;
-                    OutputStream localStream =
-                        rCommand.getLocalStream() == null ?
-                            rCommand.getLocalStream() : new FileOutputStream(rCommand.getLocalPathname());
+                    OutputStream localStream = limit(rCommand.getLocalStream(), host.getHostString());
                     client.retrieveFile(rCommand.getRemotePathname(), localStream);
                     localStream.close();
                 } else if (command instanceof AppendCommand) {
                     LOG.debug("Issue file append command: {}", command);
                     AppendCommand aCommand = (AppendCommand) command;
-                    InputStream localStream =
-                        aCommand.getLocalStream() == null ?
-                            aCommand.getLocalStream() : new FileInputStream(aCommand.getLocalPathname());
+                    InputStream localStream = limit(
+                        aCommand.getLocalStream() != null ?
+                            aCommand.getLocalStream() : new FileInputStream(aCommand.getLocalPathname()),
+                        host.getHostString());
                     client.appendFile(aCommand.getRemotePathname(), localStream);
                     localStream.close();
                 } else if (command instanceof StoreUniqueCommand) {
                     LOG.debug("Issue file store unique command: {}", command);
                     StoreUniqueCommand suCommand = (StoreUniqueCommand) command;
-                    InputStream localStream =
-                        suCommand.getLocalStream() == null ?
-                            suCommand.getLocalStream() : new FileInputStream(suCommand.getLocalPathname());
+                    InputStream localStream = limit(
+                        suCommand.getLocalStream() != null ?
+                            suCommand.getLocalStream() : new FileInputStream(suCommand.getLocalPathname()),
+                        host.getHostString());
                     client.storeUniqueFile(suCommand.getRemotePathname(), localStream);
                     localStream.close();
                 } else if (command instanceof StoreCommand) {
                     LOG.debug("Issue file store command: {}", command);
                     StoreCommand sCommand = (StoreCommand) command;
-                    InputStream localStream =
-                        sCommand.getLocalStream() == null ?
-                            sCommand.getLocalStream() : new FileInputStream(sCommand.getLocalPathname());
+                    InputStream localStream = limit(
+                        sCommand.getLocalStream() != null ?
+                            sCommand.getLocalStream() : new FileInputStream(sCommand.getLocalPathname()),
+                        host.getHostString());
                     client.storeFile(sCommand.getRemotePathname(), localStream);
                     localStream.close();
                 } else if (command instanceof LoginRequest) {
@@ -152,6 +135,137 @@ public class FtpDownloader implements Downloader {
         }
     }
 
+    private FTPClientWrapper wrapperOf(InetSocketAddress host) {
+        // Synchronize on wrappers map to avoid duplicate constructions
+        synchronized (wrappers) {
+            FTPClientWrapper wrapper = wrappers.get(host);
+            if (wrapper == null) {
+                LOG.debug("Predefined constructor for host {} not found, using default FTPClient.", host);
+                FTPClient client = new FTPClient();
+                client.enterLocalPassiveMode();
+                wrapper = new FTPClientWrapper(client, null);
+                wrappers.put(host, wrapper);
+            }
+            return wrapper;
+        }
+    }
+
+    /**
+     * Returns the client of the given wrapper, constructing it if needed, after connecting and logging it in
+     * if it is not connected. Must be called while holding the lock of the wrapper.
+     */
+    private FTPClient connect(FTPClientWrapper wrapper, InetSocketAddress host) throws IOException {
+        if (wrapper.client == null) {
+            LOG.debug("Constructing FTPClient for host {} with predefined constructor.", host);
+            wrapper.client = wrapper.configurer.construct();
+        }
+        FTPClient client = wrapper.client;
+
+        if (!client.isConnected()) {
+            LOG.info("The FTPClient is not connected. Connecting to {}.", host);
+            client.connect(host.getAddress(), host.getPort());
+            LOG.debug("Log in anonymously.");
+            client.login("anonymous", "https://github.com/Mr-Dai/Crawly");
+            LOG.debug("Server returned \"{}\".",  client.getReplyString().trim());
+            if (!FTPReply.isPositiveCompletion(client.getReplyCode())) {
+                LOG.warn("Failed to connect to target host {}. The server reply is: {} {}",
+                    host, client.getReplyCode(), client.getReplyString());
+            } else
+                LOG.info("Connected to {}:{}.", client.getRemoteAddress(), client.getRemotePort());
+        }
+        return client;
+    }
+
+    /**
+     * Connects and logs in to each distinct host of the given {@link FtpCommand}s, so that the first command
+     * sent to each host finds its client ready.
+     *
+     * @param requests the requests whose hosts to connect to.
+     * @param timeout the maximum time to wait, in milliseconds.
+     */
+    @Override
+    public void prewarm(Collection<? extends Request> requests, long timeout) {
+        Set<InetSocketAddress> hosts = new LinkedHashSet<>();
+        for (Request request : requests) {
+            if (request instanceof FtpCommand)
+                hosts.add(((FtpCommand) request).getHost());
+        }
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (final InetSocketAddress host : hosts) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    FTPClientWrapper wrapper = wrapperOf(host);
+                    synchronized (wrapper) {
+                        try {
+                            connect(wrapper, host);
+                        } catch (IOException | RuntimeException e) {
+                            LOG.debug("Failed to pre-warm a connection to " + host, e);
+                        }
+                    }
+                }
+            });
+        }
+        LOG.info("Pre-warming connections to {} FTP hosts.", hosts.size());
+        Prewarming.runAll(tasks, "ftp-prewarm-%d", timeout);
+    }
+
+    /**
+     * Retrieves the remote file of the given command straight to its local file through a {@code FileChannel},
+     * in binary mode, resuming the local file with a {@code REST} command if requested. The checksum algorithm is
+     * resolved before the file is requested, and a failed transfer disconnects the client, which reconnects on
+     * the next command, as the state of the data connection is then unknown.
+     * <p>
+     * The client is left in binary mode, which later commands to the same host share, as {@code FTPClient} cannot
+     * tell which file type was set before; commands relying on another type must set it again.
+     */
+    private FtpReply retrieveToFile(FTPClient client, RetrieveCommand command, String host) throws IOException {
+        MessageDigest digest = FileTransfer.digestOf(command.getChecksumAlgorithm());
+        Path file = Paths.get(command.getLocalPathname());
+        long offset = command.isResume() && Files.exists(file) ? Files.size(file) : 0;
+        client.setFileType(FTP.BINARY_FILE_TYPE);
+        client.setRestartOffset(offset);
+
+        InputStream in = client.retrieveFileStream(command.getRemotePathname());
+        if (in == null)
+            return new FtpReply(command, client.getReplyCode(), client.getReplyString());
+        DownloadedFile downloaded;
+        try (InputStream limited = limit(in, host)) {
+            downloaded = FileTransfer.transfer(limited, file, offset, digest);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to retrieve {}. Reconnect on next request.", command.getRemotePathname());
+            try {
+                client.disconnect();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        if (!client.completePendingCommand())
+            return new FtpReply(command, client.getReplyCode(), client.getReplyString());
+        LOG.debug("Retrieved {} to {}.", command.getRemotePathname(), downloaded);
+        return new FtpFileReply(command, client.getReplyCode(), client.getReplyString(), downloaded);
+    }
+
+    private InputStream limit(InputStream in, String host) {
+        return bandwidthLimiter == null ? in : bandwidthLimiter.wrap(in, host);
+    }
+
+    private OutputStream limit(OutputStream out, String host) {
+        return bandwidthLimiter == null ? out : bandwidthLimiter.wrap(out, host);
+    }
+
+    /**
+     * Sets the {@code BandwidthLimiter} limiting the rate at which files are transferred. On default, there is
+     * none, and files are transferred as fast as the network allows.
+     *
+     * @param bandwidthLimiter the {@code BandwidthLimiter}, or {@code null} to stop limiting bandwidth.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
     @Override
     public boolean supports(Request request) {
         return request instanceof FtpCommand;
@@ -0,0 +1,220 @@
+package com.mrdai.crawly.downloader;
+
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.Response;
+import com.mrdai.crawly.network.http.BasicHttpResponse;
+import com.mrdai.crawly.network.http.DecodingEntity;
+import com.mrdai.crawly.network.http.HttpEntityEnclosingRequest;
+import com.mrdai.crawly.network.http.HttpHeaders;
+import com.mrdai.crawly.network.http.HttpMethods;
+import com.mrdai.crawly.network.http.HttpRequest;
+import com.mrdai.crawly.network.http.TransferStats;
+import okhttp3.ConnectionPool;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.InputStreamEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Downloader} for {@link HttpRequest}s which speaks HTTP/2 whenever the server supports it,
+ * multiplexing every concurrent request to the same origin as streams over a single connection.
+ * <p>
+ * The downloader uses OkHttp, which negotiates the protocol of each {@code https} connection via ALPN and falls
+ * back to HTTP/1.1 for origins that do not offer {@code h2}, in which case concurrent requests to the same origin
+ * use a connection each, as with {@link HttpDownloader}. Plain {@code http} origins always use HTTP/1.1. Header
+ * fields of HTTP/2 streams are compressed with HPACK. The protocol version of each returned {@link BasicHttpResponse}
+ * tells which protocol was used, i.e. {@code HTTP/2.0} or {@code HTTP/1.1}.
+ * <p>
+ * Like {@code HttpDownloader}, the downloader advertises {@code gzip}, {@code deflate} and {@code br} encodings,
+ * decodes bodies as they are read with a {@link DecodingEntity}, and counts wire and decoded bytes in
+ * {@link TransferStats}. The body of a response is streamed from its connection; the
+ * {@link com.mrdai.crawly.Crawler Crawler} closes every response after its pipelines have run, which frees its
+ * stream or connection.
+ * <p>
+ * Unless constructed with a preconfigured {@link OkHttpClient}, the downloader owns its connection pool, which
+ * keeps at most the given number of idle connections alive for at most the given keep-alive time. On default,
+ * at most {@code 100} idle connections are kept alive for {@code 5} minutes.
+ *
+ * @see HttpDownloader
+ */
+public class Http2Downloader implements Downloader {
+    private static final Logger LOG = LoggerFactory.getLogger(Http2Downloader.class);
+
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 100;
+    private static final long DEFAULT_KEEP_ALIVE = TimeUnit.MINUTES.toMillis(5);
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    private final OkHttpClient client;
+    private final boolean owned;
+    private final TransferStats transferStats = new TransferStats();
+
+    /**
+     * Creates an {@code Http2Downloader} with a connection pool of the default size.
+     */
+    public Http2Downloader() {
+        this(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE);
+    }
+
+    /**
+     * Creates an {@code Http2Downloader} whose connection pool keeps at most the given number of idle connections
+     * alive for at most the given keep-alive time.
+     *
+     * @param maxIdleConnections the maximum number of idle connections in the pool.
+     * @param keepAlive the maximum time, in milliseconds, to keep an idle connection alive.
+     */
+    public Http2Downloader(int maxIdleConnections, long keepAlive) {
+        this.client = new OkHttpClient.Builder()
+                                      .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                                      .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive,
+                                                                         TimeUnit.MILLISECONDS))
+                                      .build();
+        this.owned = true;
+    }
+
+    /**
+     * Creates an {@code Http2Downloader} with the given preconfigured {@code OkHttpClient}.
+     * The client will not be shut down by {@link #close()}.
+     *
+     * @param client the given {@code OkHttpClient}.
+     */
+    public Http2Downloader(OkHttpClient client) {
+        this.client = client;
+        this.owned = false;
+    }
+
+    @Override
+    public boolean supports(Request request) {
+        return request instanceof HttpRequest;
+    }
+
+    @Override
+    public Response download(Request request) throws IOException {
+        HttpRequest hRequest = (HttpRequest) request;
+        LOG.info("Handling request `{}`", hRequest.toString());
+
+        okhttp3.Response response = client.newCall(toOkHttp(hRequest)).execute();
+
+        BasicHttpResponse result = new BasicHttpResponse(request, versionOf(response.protocol()),
+                                                         response.code(), response.message());
+        Headers headers = response.headers();
+        for (int i = 0; i < headers.size(); i++)
+            result.addHeader(headers.name(i), headers.value(i));
+
+        ResponseBody body = response.body();
+        if (body != null) {
+            InputStreamEntity entity = new InputStreamEntity(body.byteStream(), body.contentLength());
+            entity.setContentType(response.header(HttpHeaders.CONTENT_TYPE));
+            entity.setContentEncoding(response.header(HttpHeaders.CONTENT_ENCODING));
+
+            TransferStats stats = new TransferStats(transferStats);
+            DecodingEntity decoding = new DecodingEntity(entity, stats);
+            if (decoding.isDecoding()) {
+                result.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+                result.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+            }
+            result.setTransferStats(stats);
+            result.setEntity(decoding);
+        }
+
+        return result;
+    }
+
+    private static okhttp3.Request toOkHttp(HttpRequest request) {
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder()
+                                                         .url(request.getRequestTarget().toASCIIString());
+        for (Header header : request.getAllHeaders())
+            builder.addHeader(header.getName(), header.getValue());
+        if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING))
+            builder.header(HttpHeaders.ACCEPT_ENCODING, DecodingEntity.ACCEPT_ENCODING);
+
+        RequestBody body = null;
+        if (request instanceof HttpEntityEnclosingRequest
+            && ((HttpEntityEnclosingRequest) request).getEntity() != null)
+            body = new EntityRequestBody(((HttpEntityEnclosingRequest) request).getEntity());
+        else if (requiresBody(request.getMethod()))
+            body = RequestBody.create(null, new byte[0]);
+        return builder.method(request.getMethod(), body).build();
+    }
+
+    private static boolean requiresBody(String method) {
+        return method.equals(HttpMethods.POST) || method.equals(HttpMethods.PUT) || method.equals(HttpMethods.PATCH);
+    }
+
+    private static ProtocolVersion versionOf(Protocol protocol) {
+        switch (protocol) {
+            case HTTP_2:
+            case H2_PRIOR_KNOWLEDGE:
+                return HTTP_2;
+            case HTTP_1_0:
+                return HttpVersion.HTTP_1_0;
+            default:
+                return HttpVersion.HTTP_1_1;
+        }
+    }
+
+    /**
+     * Returns the total byte counts of the bodies downloaded by this downloader.
+     *
+     * @return the total byte counts of the downloaded bodies.
+     */
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    /** Returns the number of open connections, idle or not. */
+    public int getConnectionCount() {
+        return client.connectionPool().connectionCount();
+    }
+
+    /** Returns the number of idle connections. */
+    public int getIdleConnectionCount() {
+        return client.connectionPool().idleConnectionCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!owned)
+            return;
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+        LOG.debug("Connection pool shut down.");
+    }
+
+    /** {@code RequestBody} writing an {@code HttpEntity}. */
+    private static class EntityRequestBody extends RequestBody {
+        private final HttpEntity entity;
+
+        EntityRequestBody(HttpEntity entity) {
+            this.entity = entity;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return entity.getContentType() == null ? null : MediaType.parse(entity.getContentType().getValue());
+        }
+
+        @Override
+        public long contentLength() {
+            return entity.getContentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            entity.writeTo(sink.outputStream());
+        }
+    }
+}
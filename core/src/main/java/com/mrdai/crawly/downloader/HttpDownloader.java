@@ -1,36 +1,294 @@
 package com.mrdai.crawly.downloader;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mrdai.crawly.network.DownloadedFile;
+import com.mrdai.crawly.network.FileTransfer;
 import com.mrdai.crawly.network.Request;
 import com.mrdai.crawly.network.Response;
 import com.mrdai.crawly.network.http.BasicHttpResponse;
+import com.mrdai.crawly.network.http.BufferedEntity;
+import com.mrdai.crawly.network.http.DecodingEntity;
+import com.mrdai.crawly.network.http.FileDownloadRequest;
+import com.mrdai.crawly.network.http.FileResponse;
+import com.mrdai.crawly.network.http.HttpHeaders;
+import com.mrdai.crawly.network.http.HttpMethods;
 import com.mrdai.crawly.network.http.HttpRequest;
+import com.mrdai.crawly.network.http.StatusCode;
+import com.mrdai.crawly.network.http.TransferStats;
+import com.mrdai.crawly.util.ByteBufferPool;
 import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.EofSensorInputStream;
+import org.apache.http.conn.EofSensorWatcher;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.URLConnection;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * The default implementation of {@link Downloader}, which uses {@link URLConnection} to download
+ * The default implementation of {@link Downloader}, which uses Apache HttpClient to download
  * content with the given {@link Request}.
+ * <p>
+ * Unless constructed with a preconfigured {@link HttpClient}, the downloader owns a pool of connections,
+ * which is sized with a global maximum and a maximum per route, i.e. per host. On default, the pool
+ * holds at most {@code 200} connections in total and {@code 20} connections per route, which should be
+ * well above the number of download threads of a {@link com.mrdai.crawly.ConcurrentCrawler ConcurrentCrawler}.
+ * <p>
+ * Connections are kept alive for as long as the server allows, but no longer than the given keep-alive time
+ * ({@code 30} seconds on default). A background thread evicts expired connections and connections idle for
+ * longer than the given idle time ({@code 60} seconds on default), and connections idle for more than
+ * {@code 2} seconds are checked for staleness before being reused. Statistics of the pool can be obtained via
+ * {@link #getTotalStats()} and {@link #getStats(HttpHost)}. Hosts are resolved by the system resolver unless
+ * another {@link DnsResolver} is given, e.g. a {@link CachingDnsResolver}. As a {@link Prewarmable}, the downloader
+ * can open connections to the starting hosts of a crawl before its first requests.
+ * <p>
+ * The {@link BasicHttpResponse} returned by this downloader is a view of the response of HttpClient, sharing
+ * its headers rather than copying them, and holds its connection until its entity is consumed or the response
+ * is closed. The {@link com.mrdai.crawly.Crawler Crawler} closes every response after its pipelines have run,
+ * so that a connection is released even if no processor reads the entity.
+ * <p>
+ * Alternatively, body buffering can be enabled via {@link #setBodyBuffering(long)}, in which case the downloader
+ * reads each body, up to a maximum size, into a {@link BufferedEntity} backed by pooled buffers, and releases the
+ * connection right away. Bodies longer than the maximum size are truncated and their connections are aborted.
+ * Bodies longer than the memory threshold given to {@link #setBodyBuffering(long, long)} are spilled to temporary
+ * files, which are deleted when the responses are closed.
+ * <p>
+ * If a {@link ValidatorStore} is set via {@link #setValidatorStore(ValidatorStore)}, the {@code ETag} and
+ * {@code Last-Modified} headers of every successful {@code GET} response are recorded once its body has been
+ * read to the end, and later {@code GET} requests for the same URL are sent with {@code If-None-Match} and
+ * {@code If-Modified-Since} headers, unless the request sets them itself. Bodies which are truncated, discarded,
+ * closed early or fail to be read leave the recorded validators untouched. A server whose content has not
+ * changed then answers with a bodiless {@link StatusCode#NOT_MODIFIED 304 Not Modified} response, which is
+ * returned as is, so that page processors can skip unchanged pages by checking the status code.
+ * <p>
+ * Every request is sent with an {@code Accept-Encoding} header listing {@code gzip}, {@code deflate} and
+ * {@code br}, unless the request sets it itself or the downloader uses a preconfigured {@code HttpClient}.
+ * Encoded bodies are wrapped in a {@link DecodingEntity}, which decodes them as they are read, and the
+ * {@code Content-Encoding} and {@code Content-Length} headers of their responses are removed, as they no longer
+ * describe the entity. The wire and decoded bytes of each body are counted in the {@link TransferStats} of its
+ * response, and the totals of the downloader can be obtained via {@link #getTransferStats()}.
+ * When body buffering is enabled, bodies are buffered decoded, and the maximum body size applies to decoded bytes.
+ * <p>
+ * Per-host {@link CircuitBreaker}s can be enabled via {@link #setCircuitBreakers(int, double, long, long)}, in
+ * which case requests to a host whose breaker is open fail right away with a {@link CircuitOpenException}.
+ * Requests which throw, return a {@code 5xx} status or are slow count as failures. The connect, read and total
+ * timeouts of requests can be set per domain, e.g. for slow government sites, via
+ * {@link #setTimeoutProfile(String, TimeoutProfile)}, and for every other host via
+ * {@link #setDefaultTimeoutProfile(TimeoutProfile)}; on default, the timeouts of the client apply.
+ * <p>
+ * If a {@link ContentPolicy} is set, which the {@link com.mrdai.crawly.Crawler Crawler} does on start unless
+ * one has been set already, the {@code Content-Type} and {@code Content-Length} headers of each response are
+ * checked against it before its body is read. The body of a response no page processor wants is discarded,
+ * aborting the connection unless the body is small, and the response is returned without entity. Only the
+ * requests of the crawl, i.e. those with {@link com.mrdai.crawly.network.CrawlMetadata CrawlMetadata}, are
+ * checked, so that auxiliary downloads such as {@code robots.txt} files and sitemaps are never discarded.
+ * <p>
+ * If a {@link ProxyPool} is set via {@link #setProxyPool(ProxyPool)}, every request is routed through a proxy
+ * acquired from the pool, and its outcome is reported back to the pool once the body of the response has been
+ * read to the end or closed, so that the limits of the pool hold for streamed bodies too. Requests which throw,
+ * return a {@code 407}, {@code 502} or {@code 504} status, or whose body fails to be read, count as failures of
+ * the proxy. As connections are pooled per
+ * route, the maximum number of connections per route applies to each pair of proxy and host.
+ * <p>
+ * The redirect chain of every response can be obtained via {@link BasicHttpResponse#getRedirectChain()}. If a
+ * {@link RedirectCache} is set via {@link #setRedirectCache(RedirectCache)}, the redirects of every {@code GET}
+ * request are recorded in it, and later {@code GET} requests for known aliases are sent straight to their final
+ * URL, in which case the redirect chain starts with the alias all the same.
+ * <p>
+ * If a {@link BandwidthLimiter} is set via {@link #setBandwidthLimiter(BandwidthLimiter)}, the bodies are read
+ * through it, as bytes of the host which sent them, before they are decoded, so that the limits apply to the
+ * bytes on the wire.
+ * <p>
+ * Cookies are handled by the cookie store of the client, unless a {@link ConcurrentCookieStore} is set via
+ * {@link #setCookieStore(ConcurrentCookieStore)}, in which case HttpClient only looks through the cookies of the
+ * host of each request and its parent domains, rather than through every cookie under a lock.
+ * <p>
+ * The body of a {@link FileDownloadRequest} is written straight to its local file through a
+ * {@link java.nio.channels.FileChannel FileChannel}, possibly resuming a partial file, and the downloader returns
+ * a {@link FileResponse} whose entity reads the local file. Such requests are neither conditional, buffered nor
+ * checked against the {@code ContentPolicy}.
  *
  * @see Downloader
  */
-public class HttpDownloader implements Downloader {
+public class HttpDownloader implements Downloader, Prewarmable, ContentPolicyAware {
     private static final Logger LOG = LoggerFactory.getLogger(HttpDownloader.class);
 
+    private static final int DEFAULT_MAX_TOTAL = 200;
+    private static final int DEFAULT_MAX_PER_ROUTE = 20;
+    private static final long DEFAULT_KEEP_ALIVE = 30000;
+    private static final long DEFAULT_MAX_IDLE_TIME = 60000;
+    private static final long EVICTION_INTERVAL = 5000;
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final int DEFAULT_MAX_POOLED_BUFFERS = 1024;
+    private static final int MAX_BREAKERS = 10000;
+    private static final long MAX_DRAINED_BODY = 16 * 1024;
+    private static final String REDIRECT_STATUSES = "crawly.redirect-statuses";
+
     private final HttpClient client;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor evictor;
+    private final TransferStats transferStats = new TransferStats();
+
+    private ByteBufferPool bufferPool;
+    private long maxBodySize = -1;
+    private long memoryThreshold = -1;
+    private Path spillDirectory;
+    private ValidatorStore validatorStore;
+    private ContentPolicy contentPolicy;
+    private ProxyPool proxyPool;
+    private RedirectCache redirectCache;
+    private BandwidthLimiter bandwidthLimiter;
+    private ConcurrentCookieStore cookieStore;
+
+    private Cache<String, CircuitBreaker> breakers;
+    private int breakerWindowSize;
+    private double breakerFailureRate;
+    private long breakerSlowCall;
+    private long breakerOpenDuration;
 
+    // The default request config of a preconfigured client, which per-request configs start from
+    private final RequestConfig defaultConfig;
+    private final Map<String, TimeoutProfile> timeoutProfiles = new ConcurrentHashMap<>();
+    private TimeoutProfile defaultTimeoutProfile;
+    private ScheduledThreadPoolExecutor abortTimer;
+
+    /**
+     * Creates an {@code HttpDownloader} with a connection pool of the default size.
+     */
     public HttpDownloader() {
-        this(HttpClients.createDefault());
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE);
     }
 
+    /**
+     * Creates an {@code HttpDownloader} with a connection pool of the given size.
+     *
+     * @param maxTotal the maximum number of connections in the pool.
+     * @param maxPerRoute the maximum number of connections to a single route.
+     */
+    public HttpDownloader(int maxTotal, int maxPerRoute) {
+        this(maxTotal, maxPerRoute, DEFAULT_KEEP_ALIVE, DEFAULT_MAX_IDLE_TIME);
+    }
+
+    /**
+     * Creates an {@code HttpDownloader} with a connection pool of the given size, which keeps connections alive
+     * for at most the given keep-alive time and evicts connections idle for longer than the given idle time.
+     *
+     * @param maxTotal the maximum number of connections in the pool.
+     * @param maxPerRoute the maximum number of connections to a single route.
+     * @param keepAlive the maximum time, in milliseconds, to keep a connection alive.
+     * @param maxIdleTime the maximum time, in milliseconds, a connection can stay idle in the pool.
+     */
+    public HttpDownloader(int maxTotal, int maxPerRoute, long keepAlive, long maxIdleTime) {
+        this(maxTotal, maxPerRoute, keepAlive, maxIdleTime, SystemDefaultDnsResolver.INSTANCE);
+    }
+
+    /**
+     * Creates an {@code HttpDownloader} with a connection pool of the given size, which keeps connections alive
+     * for at most the given keep-alive time, evicts connections idle for longer than the given idle time and
+     * resolves hosts with the given {@code DnsResolver}. The resolver will not be closed by {@link #close()}.
+     *
+     * @param maxTotal the maximum number of connections in the pool.
+     * @param maxPerRoute the maximum number of connections to a single route.
+     * @param keepAlive the maximum time, in milliseconds, to keep a connection alive.
+     * @param maxIdleTime the maximum time, in milliseconds, a connection can stay idle in the pool.
+     * @param dnsResolver the {@code DnsResolver} resolving the hosts to connect to.
+     */
+    public HttpDownloader(int maxTotal, int maxPerRoute, long keepAlive, long maxIdleTime,
+                          DnsResolver dnsResolver) {
+        connectionManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                               .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                               .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                               .build(),
+                dnsResolver);
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        defaultConfig = null;
+        client = HttpClients.custom()
+                            .setConnectionManager(connectionManager)
+                            .setKeepAliveStrategy(new CappedKeepAliveStrategy(keepAlive))
+                            .disableContentCompression()
+                            .setRedirectStrategy(new RecordingRedirectStrategy())
+                            .build();
+
+        evictor = new IdleConnectionEvictor(connectionManager, EVICTION_INTERVAL, TimeUnit.MILLISECONDS,
+                                            maxIdleTime, TimeUnit.MILLISECONDS);
+        evictor.start();
+    }
+
+    /**
+     * Creates an {@code HttpDownloader} with the given preconfigured {@code HttpClient}.
+     * The connections of the client are managed by the client itself, and the client
+     * will not be closed by {@link #close()}.
+     * <p>
+     * Timeout profiles and the proxies of a {@link ProxyPool} are applied on top of the default request config of
+     * the client, which is read from the client if it is {@link Configurable}, as are the clients built by
+     * {@code HttpClients}. Otherwise, the config of a request with a timeout profile or a proxy replaces the
+     * defaults of the client, such as its timeouts and cookie spec.
+     *
+     * @param client the given {@code HttpClient}.
+     */
     public HttpDownloader(HttpClient client) {
         this.client = client;
+        this.defaultConfig = client instanceof Configurable ? ((Configurable) client).getConfig() : null;
+        this.connectionManager = null;
+        this.evictor = null;
     }
 
     @Override
@@ -43,18 +301,876 @@ public class HttpDownloader implements Downloader {
         HttpRequest hRequest = (HttpRequest) request;
         LOG.info("Handling request `{}`", hRequest.toString());
 
-        HttpResponse response = client.execute(hRequest.toApache());
+        HttpUriRequest aRequest = hRequest.toApache();
+        URI original = aRequest.getURI();
+        boolean redirectable = redirectCache != null && HttpMethods.GET.equals(aRequest.getMethod())
+                               && aRequest instanceof HttpRequestBase;
+        if (redirectable) {
+            URI target = redirectCache.resolve(original);
+            if (target != null) {
+                LOG.debug("Sending `{}` straight to `{}` as it is a known alias.", original, target);
+                ((HttpRequestBase) aRequest).setURI(target);
+            }
+        }
+        String host = aRequest.getURI().getHost();
+        ProxyPool pool = proxyPool;
+        ProxyPool.Proxy proxy = null;
+        if (pool != null) {
+            proxy = pool.acquire();
+            applyProxy(aRequest, proxy.getHost());
+        }
+        CircuitBreaker breaker = breakerOf(host);
+        if (breaker != null && !breaker.tryAcquire()) {
+            if (proxy != null)
+                pool.cancel(proxy);
+            throw new CircuitOpenException(host, breaker.getRetryDelay());
+        }
+        Future<?> abort = applyTimeouts(aRequest, host);
+        long start = System.currentTimeMillis();
+        Exchange exchange = new Exchange(abort, pool, proxy, start);
+        int status = -1;
+        try {
+            HttpClientContext context = HttpClientContext.create();
+            if (cookieStore != null)
+                context.setCookieStore(new HostCookieStore(cookieStore, context, host));
+            BasicHttpResponse result = execute(request, aRequest, context, exchange);
+            status = result.getStatusCode();
+            List<URI> chain = redirectChainOf(original, aRequest.getURI(), context);
+            result.setRedirectChain(chain);
+            if (redirectable && !chain.isEmpty())
+                recordRedirects(chain, context, status);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            exchange.complete(true, false);
+            throw e;
+        } finally {
+            if (breaker != null)
+                breaker.record(status < 0 || status / 100 == 5, System.currentTimeMillis() - start);
+        }
+    }
+
+    private BasicHttpResponse execute(Request request, HttpUriRequest aRequest, HttpContext context,
+                                      Exchange exchange) throws IOException {
+        if (request instanceof FileDownloadRequest) {
+            FileResponse result = executeToFile((FileDownloadRequest) request, aRequest, context);
+            exchange.setStatus(result.getStatusCode());
+            exchange.complete(false, true);
+            return result;
+        }
+
+        String url = validatorStore != null && HttpMethods.GET.equals(aRequest.getMethod())
+                     ? aRequest.getURI().toString() : null;
+        if (url != null)
+            addValidators(aRequest, url);
+        if (connectionManager != null && !aRequest.containsHeader(HttpHeaders.ACCEPT_ENCODING))
+            aRequest.setHeader(HttpHeaders.ACCEPT_ENCODING, DecodingEntity.ACCEPT_ENCODING);
+        HttpResponse response = client.execute(aRequest, context);
+        exchange.setStatus(response.getStatusLine().getStatusCode());
+        if (url != null)
+            exchange.recordValidatorsOnCompletion(response, url);
+
+        BasicHttpResponse result = new BasicHttpResponse(request, response);
+        result.setAbortHandle(abortHandleOf(aRequest));
+
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            exchange.complete(false, true);
+        } else if (request.getMetadata() != null && !isWanted(entity)) {
+            discard(aRequest, entity);
+            exchange.complete(false, false);
+            entity = null;
+        }
+        if (entity != null) {
+            if (bandwidthLimiter != null)
+                entity = bandwidthLimiter.wrap(entity, targetHostOf(aRequest, context), abortHandleOf(aRequest));
+            TransferStats stats = new TransferStats(transferStats);
+            DecodingEntity decoding = new DecodingEntity(entity, stats);
+            if (decoding.isDecoding()) {
+                result.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+                result.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+            }
+            result.setTransferStats(stats);
+            entity = decoding;
+        }
+        if (entity != null && maxBodySize >= 0) {
+            BufferedEntity buffered = buffer(aRequest, entity);
+            exchange.complete(false, !buffered.isTruncated());
+            entity = buffered;
+        } else if (entity != null) {
+            entity = new WatchedEntity(entity, exchange);
+        }
+        result.setEntity(entity);
 
-        BasicHttpResponse result = new BasicHttpResponse(request, response.getProtocolVersion(),
-                                                            response.getStatusLine().getStatusCode(),
-                                                            response.getStatusLine().getReasonPhrase());
-        for (Header header : response.getAllHeaders())
-            result.addHeader(header);
-        result.setEntity(response.getEntity());
+        return result;
+    }
+
+    private FileResponse executeToFile(FileDownloadRequest request, HttpUriRequest aRequest, HttpContext context)
+        throws IOException {
+        Path file = request.getFile();
+        long offset = request.isResume() && Files.exists(file) ? Files.size(file) : 0;
+        if (offset > 0)
+            aRequest.setHeader(HttpHeaders.RANGE, "bytes=" + offset + '-');
+        if (!aRequest.containsHeader(HttpHeaders.ACCEPT_ENCODING))
+            aRequest.setHeader(HttpHeaders.ACCEPT_ENCODING, "identity");
+        HttpResponse response = client.execute(aRequest, context);
+        int status = response.getStatusLine().getStatusCode();
 
+        HttpEntity entity = response.getEntity();
+        TransferStats stats = new TransferStats(transferStats);
+        DownloadedFile downloaded = null;
+        try {
+            if (status == StatusCode.RANGE_NOT_SATISFIABLE && offset > 0) {
+                LOG.debug("`{}` has already been downloaded completely to {}.", aRequest.getURI(), file);
+                downloaded = FileTransfer.complete(file, request.getChecksumAlgorithm());
+            } else if (status / 100 == 2 && entity != null) {
+                long start = status == StatusCode.PARTIAL_CONTENT ? rangeStartOf(response) : 0;
+                if (start != 0 && start != offset)
+                    throw new IOException("Server sent range starting at " + start + " instead of " + offset);
+                if (bandwidthLimiter != null)
+                    entity = bandwidthLimiter.wrap(entity, targetHostOf(aRequest, context), abortHandleOf(aRequest));
+                entity = new DecodingEntity(entity, stats);
+                downloaded = FileTransfer.transfer(entity.getContent(), file, start,
+                                                   request.getChecksumAlgorithm());
+                LOG.debug("Downloaded `{}` to {}.", aRequest.getURI(), downloaded);
+            }
+        } catch (IOException | RuntimeException e) {
+            aRequest.abort();
+            throw e;
+        }
+        EntityUtils.consume(entity);
+
+        FileResponse result = new FileResponse(request, response, downloaded);
+        result.setTransferStats(stats);
+        if (downloaded != null) {
+            FileEntity fileEntity = new FileEntity(file.toFile());
+            fileEntity.setContentType(response.getFirstHeader(HttpHeaders.CONTENT_TYPE));
+            result.setEntity(fileEntity);
+        }
         return result;
     }
 
+    /** Returns the host the given request has been sent to after any redirect. */
+    private static String targetHostOf(HttpUriRequest aRequest, HttpContext context) {
+        HttpHost target = HttpClientContext.adapt(context).getTargetHost();
+        return target != null ? target.getHostName() : aRequest.getURI().getHost();
+    }
+
+    /** Returns the first byte position of the {@code Content-Range} of the given partial response. */
+    private static long rangeStartOf(HttpResponse response) throws IOException {
+        Header range = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        String value = range == null ? "" : range.getValue().trim();
+        int dash = value.indexOf('-');
+        if (!value.startsWith("bytes ") || dash < 0)
+            throw new IOException("Malformed Content-Range `" + value + "` of partial response.");
+        try {
+            return Long.parseLong(value.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed Content-Range `" + value + "` of partial response.", e);
+        }
+    }
+
+    private boolean isWanted(HttpEntity entity) {
+        if (contentPolicy == null)
+            return true;
+        Header contentType = entity.getContentType();
+        return contentPolicy.accepts(contentType == null ? null : contentType.getValue(), entity.getContentLength());
+    }
+
+    /**
+     * Discards the given unwanted entity, draining it if it is small enough for its connection to be
+     * worth keeping, or aborting the connection otherwise.
+     */
+    private void discard(HttpUriRequest aRequest, HttpEntity entity) throws IOException {
+        long length = entity.getContentLength();
+        LOG.debug("Discarding unwanted body of `{}` ({}, {} bytes).", aRequest.getURI(), entity.getContentType(),
+                  length);
+        if (length >= 0 && length <= MAX_DRAINED_BODY)
+            EntityUtils.consume(entity);
+        else
+            aRequest.abort();
+    }
+
+    private static Cancellable abortHandleOf(final HttpUriRequest aRequest) {
+        return new Cancellable() {
+            @Override
+            public boolean cancel() {
+                aRequest.abort();
+                return true;
+            }
+        };
+    }
+
+    private CircuitBreaker breakerOf(String host) {
+        if (breakers == null || host == null)
+            return null;
+        host = host.toLowerCase(Locale.ROOT);
+        CircuitBreaker breaker = breakers.getIfPresent(host);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(breakerWindowSize, breakerFailureRate, breakerSlowCall, breakerOpenDuration);
+            CircuitBreaker existing = breakers.asMap().putIfAbsent(host, breaker);
+            if (existing != null)
+                breaker = existing;
+        }
+        return breaker;
+    }
+
+    /**
+     * Returns the URLs visited by the given request, given the URL originally requested and the URL actually
+     * sent, which differ if the request has been sent straight to the target of a known alias.
+     */
+    private static List<URI> redirectChainOf(URI original, URI sent, HttpClientContext context) {
+        List<URI> locations = context.getRedirectLocations();
+        boolean rewritten = !original.equals(sent);
+        if (!rewritten && (locations == null || locations.isEmpty()))
+            return Collections.emptyList();
+        List<URI> chain = new ArrayList<>();
+        chain.add(original);
+        if (rewritten)
+            chain.add(sent);
+        if (locations != null)
+            chain.addAll(locations);
+        return chain;
+    }
+
+    /** Records the redirects of the given chain, whose hops were recorded in the given context, if any. */
+    @SuppressWarnings("unchecked")
+    private void recordRedirects(List<URI> chain, HttpClientContext context, int status) {
+        List<Integer> statuses = (List<Integer>) context.getAttribute(REDIRECT_STATUSES);
+        int followed = chain.size() - (statuses == null ? 0 : statuses.size()) - 1;
+        for (int i = 0; i + 1 < chain.size(); i++) {
+            int code = statuses != null && i >= followed ? statuses.get(i - followed) : 0;
+            redirectCache.put(chain.get(i), chain.get(i + 1), code);
+        }
+        if (status / 100 == 2)
+            redirectCache.putTarget(chain.get(chain.size() - 1));
+    }
+
+    /** Routes the given request through the given proxy. */
+    private void applyProxy(HttpUriRequest aRequest, HttpHost proxy) {
+        if (!(aRequest instanceof HttpRequestBase))
+            return;
+        HttpRequestBase base = (HttpRequestBase) aRequest;
+        base.setConfig(configOf(base).setProxy(proxy).build());
+    }
+
+    /**
+     * Applies the timeout profile of the given host to the given request, and returns the scheduled abortion
+     * of the request if the profile has a total timeout.
+     */
+    private Future<?> applyTimeouts(final HttpUriRequest aRequest, String host) {
+        TimeoutProfile profile = timeoutProfileOf(host);
+        if (profile == null)
+            return null;
+        if (aRequest instanceof HttpRequestBase) {
+            HttpRequestBase base = (HttpRequestBase) aRequest;
+            RequestConfig.Builder config = configOf(base);
+            if (profile.getConnectTimeout() >= 0)
+                config.setConnectTimeout(profile.getConnectTimeout());
+            if (profile.getReadTimeout() >= 0)
+                config.setSocketTimeout(profile.getReadTimeout());
+            base.setConfig(config.build());
+        }
+        if (profile.getTotalTimeout() <= 0)
+            return null;
+        return abortTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                LOG.debug("Aborting `{}` as it exceeded its total timeout.", aRequest.getURI());
+                aRequest.abort();
+            }
+        }, profile.getTotalTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a builder of the config of the given request, starting from the config of the request if it has one,
+     * or from the default config of the client.
+     */
+    private RequestConfig.Builder configOf(HttpRequestBase base) {
+        if (base.getConfig() != null)
+            return RequestConfig.copy(base.getConfig());
+        return defaultConfig == null ? RequestConfig.custom() : RequestConfig.copy(defaultConfig);
+    }
+
+    /** Returns the profile of the longest domain the given host belongs to, or the default profile. */
+    private TimeoutProfile timeoutProfileOf(String host) {
+        if (host == null || timeoutProfiles.isEmpty())
+            return defaultTimeoutProfile;
+        String domain = host.toLowerCase(Locale.ROOT);
+        while (true) {
+            TimeoutProfile profile = timeoutProfiles.get(domain);
+            if (profile != null)
+                return profile;
+            int dot = domain.indexOf('.');
+            if (dot < 0)
+                return defaultTimeoutProfile;
+            domain = domain.substring(dot + 1);
+        }
+    }
+
+    /** Adds the conditional headers matching the validators recorded for the given URL, if any. */
+    private void addValidators(HttpUriRequest aRequest, String url) {
+        ValidatorStore.Validators validators = validatorStore.get(url);
+        if (validators == null)
+            return;
+        if (!validators.getEtag().isEmpty() && !aRequest.containsHeader(HttpHeaders.IF_NONE_MATCH))
+            aRequest.setHeader(HttpHeaders.IF_NONE_MATCH, validators.getEtag());
+        if (!validators.getLastModified().isEmpty() && !aRequest.containsHeader(HttpHeaders.IF_MODIFIED_SINCE))
+            aRequest.setHeader(HttpHeaders.IF_MODIFIED_SINCE, validators.getLastModified());
+    }
+
+    /** Records the validators of the given response, whose body has been received in full, if it is successful. */
+    private void recordValidators(HttpResponse response, String url) {
+        int status = response.getStatusLine().getStatusCode();
+        if (status == StatusCode.NOT_MODIFIED) {
+            LOG.debug("`{}` has not been modified since the last download.", url);
+            return;
+        }
+        if (status / 100 != 2)
+            return;
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        try {
+            validatorStore.put(url, etag == null ? null : etag.getValue(),
+                               lastModified == null ? null : lastModified.getValue());
+        } catch (IOException e) {
+            LOG.warn("Failed to record the validators of `" + url + "`.", e);
+        }
+    }
+
+    /**
+     * Reads the given entity into a {@code BufferedEntity} and releases its connection,
+     * aborting the connection if the entity is truncated.
+     */
+    private BufferedEntity buffer(HttpUriRequest aRequest, HttpEntity entity) throws IOException {
+        BufferedEntity buffered;
+        try {
+            buffered = BufferedEntity.read(entity, bufferPool, maxBodySize, memoryThreshold, spillDirectory);
+        } catch (IOException e) {
+            aRequest.abort();
+            throw e;
+        }
+        if (buffered.isTruncated()) {
+            LOG.debug("Body of `{}` exceeds {} bytes and has been truncated.", aRequest.getURI(), maxBodySize);
+            aRequest.abort();
+        } else {
+            EntityUtils.consume(entity);
+        }
+        return buffered;
+    }
+
+    /**
+     * Enables body buffering, with buffers of {@code 16} KiB taken from a pool holding at most {@code 1024}
+     * idle buffers. Each response body is read into memory, up to the given maximum size, before the
+     * response is returned. Passing a negative size disables body buffering.
+     *
+     * @param maxBodySize the maximum number of bytes buffered for each body.
+     */
+    public void setBodyBuffering(long maxBodySize) {
+        setBodyBuffering(maxBodySize, maxBodySize);
+    }
+
+    /**
+     * Enables body buffering, with buffers of {@code 16} KiB taken from a pool holding at most {@code 1024}
+     * idle buffers. Each response body is read, up to the given maximum size, before the response is returned.
+     * Bodies longer than the given memory threshold are spilled to temporary files.
+     * Passing a negative maximum size disables body buffering.
+     *
+     * @param maxBodySize the maximum number of bytes buffered for each body.
+     * @param memoryThreshold the maximum number of bytes of each body held in memory.
+     */
+    public void setBodyBuffering(long maxBodySize, long memoryThreshold) {
+        setBodyBuffering(maxBodySize, memoryThreshold,
+                         new ByteBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS));
+    }
+
+    /**
+     * Enables body buffering with buffers taken from the given pool. Each response body is read, up to the given
+     * maximum size, before the response is returned. Bodies longer than the given memory threshold are spilled to
+     * temporary files. Passing a negative maximum size disables body buffering.
+     *
+     * @param maxBodySize the maximum number of bytes buffered for each body.
+     * @param memoryThreshold the maximum number of bytes of each body held in memory.
+     * @param pool the pool to take buffers from.
+     */
+    public void setBodyBuffering(long maxBodySize, long memoryThreshold, ByteBufferPool pool) {
+        this.maxBodySize = maxBodySize;
+        this.memoryThreshold = memoryThreshold;
+        this.bufferPool = pool;
+    }
+
+    /**
+     * Sets the directory in which the temporary files of spilled bodies are created. On default, they are
+     * created in the default temporary-file directory.
+     *
+     * @param spillDirectory the directory of the temporary files, or {@code null} for the default.
+     */
+    public void setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Sets the {@code ContentPolicy} deciding which response bodies are worth reading. On default, there is
+     * none until the {@link com.mrdai.crawly.Crawler Crawler} sets the policy of its processors.
+     *
+     * @param contentPolicy the {@code ContentPolicy}, or {@code null} to read every body.
+     */
     @Override
-    public void close() throws IOException {}
+    public void setContentPolicy(ContentPolicy contentPolicy) {
+        this.contentPolicy = contentPolicy;
+    }
+
+    /**
+     * Returns the {@code ContentPolicy} deciding which response bodies are worth reading.
+     *
+     * @return the {@code ContentPolicy}, or {@code null} if there is none.
+     */
+    @Override
+    public ContentPolicy getContentPolicy() {
+        return contentPolicy;
+    }
+
+    /**
+     * Enables per-host circuit breakers with the given settings. Breakers are created as hosts are first
+     * requested, and at most {@code 10000} hosts are tracked at once.
+     *
+     * @param windowSize the number of recent requests whose outcomes are recorded per host.
+     * @param failureRateThreshold the proportion of failed requests, between {@code 0} and {@code 1},
+     *                             at which a breaker opens.
+     * @param slowCallThreshold the time, in milliseconds, after which a request counts as failed.
+     * @param openDuration the time, in milliseconds, a breaker stays open before letting a probe through.
+     * @see CircuitBreaker
+     */
+    public void setCircuitBreakers(int windowSize, double failureRateThreshold, long slowCallThreshold,
+                                   long openDuration) {
+        // Validates the settings before enabling anything
+        new CircuitBreaker(windowSize, failureRateThreshold, slowCallThreshold, openDuration);
+        this.breakerWindowSize = windowSize;
+        this.breakerFailureRate = failureRateThreshold;
+        this.breakerSlowCall = slowCallThreshold;
+        this.breakerOpenDuration = openDuration;
+        this.breakers = CacheBuilder.newBuilder().maximumSize(MAX_BREAKERS).build();
+    }
+
+    /**
+     * Returns the circuit breaker of the given host; returns {@code null} if circuit breakers are disabled
+     * or the host has not been requested yet.
+     *
+     * @param host the given host.
+     * @return the circuit breaker of the given host, or {@code null}.
+     */
+    public CircuitBreaker getCircuitBreaker(String host) {
+        return breakers == null ? null : breakers.getIfPresent(host.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Sets the timeout profile of the given domain, which applies to the domain and all its subdomains,
+     * unless a subdomain has a profile of its own.
+     *
+     * @param domain the given domain, e.g. {@code example.org}.
+     * @param profile the timeout profile of the domain.
+     */
+    public void setTimeoutProfile(String domain, TimeoutProfile profile) {
+        timeoutProfiles.put(domain.toLowerCase(Locale.ROOT), profile);
+        startAbortTimer();
+    }
+
+    /**
+     * Sets the timeout profile of the hosts not belonging to any domain given to
+     * {@link #setTimeoutProfile(String, TimeoutProfile)}.
+     *
+     * @param profile the default timeout profile, or {@code null} to use the timeouts of the client.
+     */
+    public void setDefaultTimeoutProfile(TimeoutProfile profile) {
+        this.defaultTimeoutProfile = profile;
+        startAbortTimer();
+    }
+
+    private synchronized void startAbortTimer() {
+        if (abortTimer != null)
+            return;
+        abortTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setDaemon(true)
+                                                                                  .setNameFormat("http-abort-%d")
+                                                                                  .build());
+        abortTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns the total byte counts of the bodies downloaded by this downloader.
+     *
+     * @return the total byte counts of the downloaded bodies.
+     */
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    /**
+     * Sets the {@code ProxyPool} every request is routed through. On default, there is none, and requests are
+     * routed as the client is configured to. The proxy of a request is set on top of the default request config
+     * of the client, as described in {@link #HttpDownloader(HttpClient)}. The proxy of a request stays acquired
+     * until the body of its response has been read to the end or closed.
+     *
+     * @param proxyPool the {@code ProxyPool}, or {@code null} to stop routing requests through proxies.
+     */
+    public void setProxyPool(ProxyPool proxyPool) {
+        this.proxyPool = proxyPool;
+    }
+
+    /**
+     * Returns the {@code ProxyPool} every request is routed through.
+     *
+     * @return the {@code ProxyPool}, or {@code null} if there is none.
+     */
+    public ProxyPool getProxyPool() {
+        return proxyPool;
+    }
+
+    /**
+     * Sets the {@code RedirectCache} learning the redirects followed by this downloader. On default, there is
+     * none, and every request follows its redirect chain.
+     *
+     * @param redirectCache the {@code RedirectCache}, or {@code null} to stop caching redirects.
+     */
+    public void setRedirectCache(RedirectCache redirectCache) {
+        this.redirectCache = redirectCache;
+    }
+
+    /**
+     * Returns the {@code RedirectCache} learning the redirects followed by this downloader.
+     *
+     * @return the {@code RedirectCache}, or {@code null} if there is none.
+     */
+    public RedirectCache getRedirectCache() {
+        return redirectCache;
+    }
+
+    /**
+     * Sets the {@code BandwidthLimiter} limiting the rate at which response bodies are downloaded. On default,
+     * there is none, and bodies are downloaded as fast as the network allows.
+     *
+     * @param bandwidthLimiter the {@code BandwidthLimiter}, or {@code null} to stop limiting bandwidth.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    /**
+     * Sets the {@code ConcurrentCookieStore} holding the cookies of every request, overriding the cookie store
+     * of the client. The store is not closed by {@link #close()}.
+     *
+     * @param cookieStore the {@code ConcurrentCookieStore}, or {@code null} to use the cookie store of the client.
+     */
+    public void setCookieStore(ConcurrentCookieStore cookieStore) {
+        this.cookieStore = cookieStore;
+    }
+
+    /**
+     * Sets the {@code ValidatorStore} used to send conditional {@code GET} requests. On default, there is none,
+     * and every request downloads the full content. The store is not closed by {@link #close()}.
+     *
+     * @param validatorStore the {@code ValidatorStore}, or {@code null} to disable conditional requests.
+     */
+    public void setValidatorStore(ValidatorStore validatorStore) {
+        this.validatorStore = validatorStore;
+    }
+
+    /**
+     * Sets the maximum number of direct connections to the given host, overriding the default maximum per route.
+     * The port of the host defaults to that of its scheme.
+     *
+     * @param host the given host.
+     * @param max the maximum number of connections to the host.
+     * @throws IllegalStateException if the downloader uses a preconfigured {@code HttpClient}.
+     */
+    public void setMaxPerHost(HttpHost host, int max) {
+        assertPooled();
+        connectionManager.setMaxPerRoute(routeOf(host), max);
+    }
+
+    /**
+     * Returns the statistics of the whole connection pool.
+     *
+     * @return the statistics of the whole connection pool.
+     * @throws IllegalStateException if the downloader uses a preconfigured {@code HttpClient}.
+     */
+    public PoolStats getTotalStats() {
+        assertPooled();
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Returns the statistics of the direct connections to the given host.
+     * The port of the host defaults to that of its scheme.
+     *
+     * @param host the given host.
+     * @return the statistics of the connections to the host.
+     * @throws IllegalStateException if the downloader uses a preconfigured {@code HttpClient}.
+     */
+    public PoolStats getStats(HttpHost host) {
+        assertPooled();
+        return connectionManager.getStats(routeOf(host));
+    }
+
+    /**
+     * Returns the route of the direct connections to the given host, as planned by the client, i.e. with the
+     * default port of its scheme if it has none, and secure for {@code https}.
+     */
+    private static HttpRoute routeOf(HttpHost host) {
+        String scheme = host.getSchemeName().toLowerCase(Locale.ROOT);
+        boolean secure = scheme.equals("https");
+        int port = host.getPort() >= 0 ? host.getPort() : secure ? 443 : 80;
+        return new HttpRoute(new HttpHost(host.getHostName(), port, scheme), null, secure);
+    }
+
+    /**
+     * Opens and pools a connection to each distinct host of the given {@link HttpRequest}s, completing the TLS
+     * handshake of {@code https} hosts, so that the first request to each host reuses a ready connection. Nothing
+     * is opened if the downloader uses a preconfigured {@code HttpClient} or a {@link ProxyPool}, as the routes of
+     * the requests are not known in advance.
+     *
+     * @param requests the requests whose hosts to connect to.
+     * @param timeout the maximum time to wait, in milliseconds.
+     */
+    @Override
+    public void prewarm(Collection<? extends Request> requests, final long timeout) {
+        if (connectionManager == null || proxyPool != null)
+            return;
+        Set<HttpRoute> routes = new LinkedHashSet<>();
+        for (Request request : requests) {
+            if (!(request instanceof HttpRequest))
+                continue;
+            URI uri = ((HttpRequest) request).getRequestTarget();
+            if (uri.getScheme() == null || uri.getHost() == null)
+                continue;
+            routes.add(routeOf(new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme())));
+        }
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (final HttpRoute route : routes) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        openConnection(route, timeout);
+                    } catch (Exception e) {
+                        LOG.debug("Failed to pre-warm a connection to " + route.getTargetHost(), e);
+                    }
+                }
+            });
+        }
+        LOG.info("Pre-warming connections to {} hosts.", routes.size());
+        Prewarming.runAll(tasks, "http-prewarm-%d", timeout);
+    }
+
+    /** Opens a connection on the given route, unless the pool holds one already, and returns it to the pool. */
+    private void openConnection(HttpRoute route, long timeout) throws Exception {
+        HttpClientConnection conn = connectionManager.requestConnection(route, null)
+                                                     .get(timeout, TimeUnit.MILLISECONDS);
+        try {
+            if (!conn.isOpen()) {
+                HttpClientContext context = HttpClientContext.create();
+                connectionManager.connect(conn, route, (int) timeout, context);
+                connectionManager.routeComplete(conn, route, context);
+                LOG.debug("Pre-warmed a connection to {}.", route.getTargetHost());
+            }
+        } catch (Exception e) {
+            conn.shutdown();
+            throw e;
+        } finally {
+            // Kept until evicted as idle, like any other connection
+            connectionManager.releaseConnection(conn, null, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void assertPooled() {
+        if (connectionManager == null)
+            throw new IllegalStateException("The downloader uses a preconfigured HttpClient without a managed pool.");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (abortTimer != null)
+            abortTimer.shutdownNow();
+        if (connectionManager == null)
+            return;
+        evictor.shutdown();
+        ((CloseableHttpClient) client).close();
+        LOG.debug("Connection pool shut down.");
+    }
+
+    /**
+     * {@code RedirectStrategy} which records the status code of every redirect it follows in the context
+     * of its request, so that permanent redirects can be told from temporary ones.
+     */
+    private static class RecordingRedirectStrategy extends DefaultRedirectStrategy {
+        @Override
+        @SuppressWarnings("unchecked")
+        public URI getLocationURI(org.apache.http.HttpRequest request, HttpResponse response, HttpContext context)
+            throws ProtocolException {
+            URI location = super.getLocationURI(request, response, context);
+            List<Integer> statuses = (List<Integer>) context.getAttribute(REDIRECT_STATUSES);
+            if (statuses == null) {
+                statuses = new ArrayList<>();
+                context.setAttribute(REDIRECT_STATUSES, statuses);
+            }
+            statuses.add(response.getStatusLine().getStatusCode());
+            return location;
+        }
+    }
+
+    /**
+     * The outcome of a request, which completes once the body of its response has been read to the end, closed
+     * early or failed. Only then is the total timeout of the request cancelled, so that it bounds the reading of
+     * a streamed body too, is its proxy released, so that the limits of the proxy pool cover the body, and are the
+     * validators of the response recorded, so that a body which has not been received in full is downloaded again
+     * rather than revalidated on the next crawl.
+     */
+    private class Exchange implements EofSensorWatcher {
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final Future<?> abort;
+        private final ProxyPool pool;
+        private final ProxyPool.Proxy proxy;
+        private final long start;
+        private volatile int status = -1;
+        private HttpResponse response;
+        private String url;
+
+        /**
+         * Creates an exchange which cancels the given scheduled abortion, if any, and releases the given proxy,
+         * if any, to the given pool once it completes.
+         */
+        Exchange(Future<?> abort, ProxyPool pool, ProxyPool.Proxy proxy, long start) {
+            this.abort = abort;
+            this.pool = pool;
+            this.proxy = proxy;
+            this.start = start;
+        }
+
+        /** Sets the status code of the response, which tells if the proxy failed. */
+        void setStatus(int status) {
+            this.status = status;
+        }
+
+        /** Records the validators of the given response of the given URL once its body has been received. */
+        void recordValidatorsOnCompletion(HttpResponse response, String url) {
+            this.response = response;
+            this.url = url;
+        }
+
+        /**
+         * Completes the exchange. Calling this method more than once has no effect.
+         *
+         * @param failed {@code true} if the request or the reading of its body failed.
+         * @param received {@code true} if the body, if any, has been received in full.
+         */
+        void complete(boolean failed, boolean received) {
+            if (!completed.compareAndSet(false, true))
+                return;
+            if (abort != null)
+                abort.cancel(false);
+            if (proxy != null)
+                pool.release(proxy, failed || status < 0 || status == StatusCode.PROXY_AUTHENTICATION_REQUIRED
+                                    || status == StatusCode.BAD_GATEWAY || status == StatusCode.GATEWAY_TIMEOUT,
+                             System.currentTimeMillis() - start);
+            if (url != null && received && !failed)
+                recordValidators(response, url);
+        }
+
+        @Override
+        public boolean eofDetected(InputStream wrapped) {
+            complete(false, true);
+            return true;
+        }
+
+        @Override
+        public boolean streamClosed(InputStream wrapped) {
+            complete(false, false);
+            return true;
+        }
+
+        @Override
+        public boolean streamAbort(InputStream wrapped) {
+            // The connection has been aborted, or has failed and been released by HttpClient
+            complete(true, false);
+            return false;
+        }
+    }
+
+    /** Entity whose content completes the given {@code Exchange} once it is read to the end, closed or fails. */
+    private static class WatchedEntity extends HttpEntityWrapper {
+        private final Exchange exchange;
+
+        WatchedEntity(HttpEntity entity, Exchange exchange) {
+            super(entity);
+            this.exchange = exchange;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new EofSensorInputStream(wrappedEntity.getContent(), exchange);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (InputStream in = getContent()) {
+                byte[] buffer = new byte[4096];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                    out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * {@code CookieStore} handed to a single request, which offers HttpClient only the cookies of the host the
+     * request is currently sent to, which changes as redirects are followed, rather than every cookie.
+     */
+    private static class HostCookieStore implements CookieStore {
+        private final ConcurrentCookieStore store;
+        private final HttpClientContext context;
+        private final String host;
+
+        HostCookieStore(ConcurrentCookieStore store, HttpClientContext context, String host) {
+            this.store = store;
+            this.context = context;
+            this.host = host;
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            store.addCookie(cookie);
+        }
+
+        @Override
+        public List<Cookie> getCookies() {
+            HttpHost target = context.getTargetHost();
+            return store.getCookies(target != null ? target.getHostName() : host);
+        }
+
+        @Override
+        public boolean clearExpired(Date date) {
+            return store.clearExpired(date);
+        }
+
+        @Override
+        public void clear() {
+            store.clear();
+        }
+    }
+
+    /**
+     * Keep-alive strategy which honors the {@code Keep-Alive} header of the server, but never keeps a
+     * connection alive for longer than the given time.
+     */
+    private static class CappedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        private final long maxKeepAlive;
+
+        CappedKeepAliveStrategy(long maxKeepAlive) {
+            this.maxKeepAlive = maxKeepAlive;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAlive <= 0 ? maxKeepAlive : Math.min(keepAlive, maxKeepAlive);
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package com.mrdai.crawly.downloader;
+
+import com.mrdai.crawly.network.Request;
+
+import java.util.Collection;
+
+/**
+ * A {@link Downloader} which can open connections ahead of time, so that its first downloads do not pay for
+ * DNS lookups, handshakes and logins in series.
+ * <p>
+ * The {@link com.mrdai.crawly.Crawler Crawler} pre-warms every such downloader with the starting requests it
+ * supports when it starts, if pre-warming has been enabled via
+ * {@link com.mrdai.crawly.Crawler#setPrewarming(long) Crawler#setPrewarming}. Downloaders wrapping another
+ * {@code Downloader} forward {@link #prewarm(Collection, long)} to it.
+ */
+public interface Prewarmable {
+    /**
+     * Opens connections to the hosts of the given requests and keeps them for the requests to come, returning
+     * after the given timeout at the latest. Connections which fail to open are logged and skipped.
+     *
+     * @param requests the requests whose hosts to connect to.
+     * @param timeout the maximum time to wait, in milliseconds.
+     */
+    void prewarm(Collection<? extends Request> requests, long timeout);
+}
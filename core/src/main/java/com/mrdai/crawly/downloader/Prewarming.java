@@ -0,0 +1,41 @@
+package com.mrdai.crawly.downloader;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility methods shared by the {@link Prewarmable} downloaders.
+ */
+final class Prewarming {
+    private static final int MAX_THREADS = 16;
+
+    private Prewarming() {
+        throw new AssertionError("Prewarming should not be instantiated!");
+    }
+
+    /**
+     * Runs the given tasks in parallel on daemon threads named after the given format, and returns once
+     * every task has completed or the given timeout has elapsed, whichever comes first.
+     */
+    static void runAll(Collection<Runnable> tasks, String nameFormat, long timeout) {
+        if (tasks.isEmpty())
+            return;
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(tasks.size(), MAX_THREADS),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build());
+        for (Runnable task : tasks)
+            executor.execute(task);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
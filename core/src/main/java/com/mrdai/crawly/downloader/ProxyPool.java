@@ -0,0 +1,230 @@
+package com.mrdai.crawly.downloader;
+
+import org.apache.http.HttpHost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A pool of HTTP proxies which spreads requests over the proxies according to their weights and load,
+ * and routes around unhealthy ones.
+ * <p>
+ * Each request {@link #acquire() acquires} the healthy proxy with the fewest requests in flight relative to its
+ * weight, among the proxies below their concurrency caps, ties being broken by the lowest average latency. If
+ * every proxy is busy or ejected, the request waits until one becomes available, at most for the acquire timeout.
+ * <p>
+ * The latency and error rate of each proxy are tracked as exponentially weighted moving averages of the outcomes
+ * given to {@link #release(Proxy, boolean, long)}. Once at least {@code 10} requests have gone through a proxy,
+ * it is ejected if its error rate exceeds the maximum error rate or its average latency exceeds the maximum
+ * latency. An ejected proxy returns to service with fresh statistics after the ejection time, which doubles on
+ * every consecutive ejection up to {@code 16} times its initial value, and is reset once a restored proxy stays
+ * healthy over its first {@code 10} requests.
+ * <p>
+ * On default, a proxy is ejected for {@code 30} seconds when more than half of its recent requests failed or
+ * its average latency exceeds {@code 10} seconds, and requests wait at most {@code 30} seconds for a proxy.
+ * This class is thread-safe.
+ *
+ * @see HttpDownloader#setProxyPool(ProxyPool)
+ */
+public class ProxyPool {
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyPool.class);
+
+    private static final double SMOOTHING = 0.2;
+    private static final int MIN_SAMPLES = 10;
+    private static final int MAX_EJECTION_DOUBLINGS = 4;
+
+    private final List<Proxy> proxies = new ArrayList<>();
+    private double maxErrorRate = 0.5;
+    private long maxLatency = 10000;
+    private long ejectionTime = 30000;
+    private long acquireTimeout = 30000;
+
+    /**
+     * Adds the given proxy to the pool.
+     *
+     * @param host the host of the proxy.
+     * @param weight the relative share of requests sent through the proxy.
+     * @param maxConcurrent the maximum number of requests in flight through the proxy.
+     * @throws IllegalArgumentException if the weight or the maximum is not positive.
+     */
+    public synchronized void addProxy(HttpHost host, double weight, int maxConcurrent) {
+        if (weight <= 0 || maxConcurrent <= 0)
+            throw new IllegalArgumentException("The weight and maximum concurrency of a proxy must be positive.");
+        proxies.add(new Proxy(host, weight, maxConcurrent));
+        notifyAll();
+    }
+
+    /**
+     * Acquires a proxy for a request, waiting if none is available. The proxy must be released via
+     * {@link #release(Proxy, boolean, long)} once the request completes.
+     *
+     * @return the acquired proxy.
+     * @throws IOException if no proxy becomes available within the acquire timeout, or the thread is interrupted.
+     */
+    public synchronized Proxy acquire() throws IOException {
+        long deadline = System.currentTimeMillis() + acquireTimeout;
+        while (true) {
+            long now = System.currentTimeMillis();
+            Proxy best = null;
+            long nextReturn = Long.MAX_VALUE;
+            for (Proxy proxy : proxies) {
+                if (proxy.ejectedUntil > now) {
+                    nextReturn = Math.min(nextReturn, proxy.ejectedUntil);
+                    continue;
+                }
+                if (proxy.ejectedUntil != 0)
+                    proxy.restore();
+                if (proxy.inFlight < proxy.maxConcurrent && (best == null || proxy.isLessLoadedThan(best)))
+                    best = proxy;
+            }
+            if (best != null) {
+                best.inFlight++;
+                return best;
+            }
+
+            long wait = Math.min(deadline, nextReturn) - now;
+            if (now >= deadline)
+                throw new IOException("No proxy became available within " + acquireTimeout + "ms.");
+            try {
+                wait(Math.max(1, wait));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a proxy.");
+            }
+        }
+    }
+
+    /**
+     * Releases the given proxy, recording the outcome of the request sent through it.
+     *
+     * @param proxy the proxy acquired for the request.
+     * @param failed {@code true} if the request failed because of the proxy or the network.
+     * @param latency the time the request took, in milliseconds.
+     */
+    public synchronized void release(Proxy proxy, boolean failed, long latency) {
+        proxy.inFlight--;
+        proxy.samples++;
+        proxy.errorRate += SMOOTHING * ((failed ? 1 : 0) - proxy.errorRate);
+        proxy.latency = proxy.samples == 1 ? latency : proxy.latency + SMOOTHING * (latency - proxy.latency);
+        if (proxy.ejectedUntil == 0 && proxy.samples >= MIN_SAMPLES) {
+            if (proxy.errorRate > maxErrorRate || proxy.latency > maxLatency)
+                eject(proxy);
+            else if (proxy.samples == MIN_SAMPLES)
+                proxy.ejections = 0;
+        }
+        notifyAll();
+    }
+
+    /** Releases the given proxy without recording any outcome, as its request has not been sent. */
+    synchronized void cancel(Proxy proxy) {
+        proxy.inFlight--;
+        notifyAll();
+    }
+
+    private void eject(Proxy proxy) {
+        long duration = ejectionTime << Math.min(proxy.ejections, MAX_EJECTION_DOUBLINGS);
+        proxy.ejections++;
+        proxy.ejectedUntil = System.currentTimeMillis() + duration;
+        LOG.warn("Ejecting proxy {} for {}ms (error rate {}, latency {}ms).", proxy.host, duration,
+                 String.format("%.2f", proxy.errorRate), (long) proxy.latency);
+    }
+
+    /**
+     * Returns the proxies of the pool.
+     *
+     * @return the proxies of the pool.
+     */
+    public synchronized List<Proxy> getProxies() {
+        return Collections.unmodifiableList(new ArrayList<>(proxies));
+    }
+
+    /**
+     * Sets the thresholds above which a proxy is ejected.
+     *
+     * @param maxErrorRate the maximum proportion of failed requests, between {@code 0} and {@code 1}.
+     * @param maxLatency the maximum average latency, in milliseconds.
+     */
+    public synchronized void setHealthThresholds(double maxErrorRate, long maxLatency) {
+        this.maxErrorRate = maxErrorRate;
+        this.maxLatency = maxLatency;
+    }
+
+    /**
+     * Sets the time an unhealthy proxy is ejected for on its first ejection, in milliseconds.
+     *
+     * @param ejectionTime the initial ejection time.
+     */
+    public synchronized void setEjectionTime(long ejectionTime) {
+        this.ejectionTime = ejectionTime;
+    }
+
+    /**
+     * Sets the maximum time a request waits for a proxy, in milliseconds.
+     *
+     * @param acquireTimeout the maximum time to wait for a proxy.
+     */
+    public synchronized void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * A proxy of a {@link ProxyPool}, along with its statistics. The statistics are guarded by the pool.
+     */
+    public static class Proxy {
+        private final HttpHost host;
+        private final double weight;
+        private final int maxConcurrent;
+
+        private int inFlight;
+        private long samples;
+        private double errorRate;
+        private double latency;
+        private long ejectedUntil;
+        private int ejections;
+
+        Proxy(HttpHost host, double weight, int maxConcurrent) {
+            this.host = host;
+            this.weight = weight;
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        boolean isLessLoadedThan(Proxy that) {
+            double load = (inFlight + 1) / weight;
+            double thatLoad = (that.inFlight + 1) / that.weight;
+            return load < thatLoad || (load == thatLoad && latency < that.latency);
+        }
+
+        void restore() {
+            LOG.info("Proxy {} returns to service.", host);
+            ejectedUntil = 0;
+            samples = 0;
+            errorRate = 0;
+            latency = 0;
+        }
+
+        /** Returns the host of this proxy. */
+        public HttpHost getHost() {
+            return host;
+        }
+
+        /** Returns the relative share of requests sent through this proxy. */
+        public double getWeight() {
+            return weight;
+        }
+
+        /** Returns the maximum number of requests in flight through this proxy. */
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        @Override
+        public String toString() {
+            return host.toHostString();
+        }
+    }
+}
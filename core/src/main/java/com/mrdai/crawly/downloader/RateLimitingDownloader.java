@@ -0,0 +1,342 @@
+package com.mrdai.crawly.downloader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.RateLimiter;
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.Response;
+import com.mrdai.crawly.network.http.HttpHeaders;
+import com.mrdai.crawly.network.http.HttpRequest;
+import com.mrdai.crawly.network.http.HttpResponse;
+import com.mrdai.crawly.network.http.StatusCode;
+import org.apache.http.Header;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.DnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Downloader} which limits the rate of requests sent to each host through the given underlying
+ * {@code Downloader}, adapting the rate of each host to how it responds.
+ * <p>
+ * Each host has a token bucket refilled at its own rate, from which every {@link HttpRequest} to the host takes
+ * a token before being downloaded, waiting if there is none. The rate of a host grows additively on every
+ * successful response, up to the maximum rate, and is cut multiplicatively on every
+ * {@link StatusCode#TOO_MANY_REQUESTS 429} or {@link StatusCode#SERVICE_UNAVAILABLE 503} response, down to
+ * the minimum rate, so that it converges on the highest rate the host tolerates.
+ * <p>
+ * When such a response carries a {@code Retry-After} header, no request is sent to the host until the given
+ * time has passed. If the wait does not exceed the maximum wait, the request is then retried, at most the given
+ * number of times, instead of handing the error page to the page processors; otherwise, the error response is
+ * returned. Requests other than {@code HttpRequest}s are downloaded without limit.
+ * <p>
+ * On default, each host starts at {@code 2} requests per second, the rate stays between {@code 0.05} and
+ * {@code 20} requests per second, grows by {@code 0.1} on success and is halved on throttling. Throttled requests
+ * are retried at most twice after waits of at most {@code 60} seconds. The states of at most {@code 10000} hosts
+ * are kept, and hosts idle for an hour are forgotten. This class is thread-safe.
+ * <p>
+ * The number of requests downloaded at once from each host can also be capped via {@link #setMaxConcurrent(int)}.
+ * As many hosts are often served by the same few shared-hosting or CDN servers, hosts can be grouped by IP address
+ * via {@link #setIpGrouping(DnsResolver)}, in which case the hosts resolving to the same address share their
+ * token bucket, {@code Retry-After} pause and concurrency cap, so that the real server is not overloaded by
+ * requests spread over its virtual hosts.
+ */
+public class RateLimitingDownloader implements Downloader, Prewarmable, ContentPolicyAware {
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitingDownloader.class);
+
+    private static final int MAX_HOSTS = 10000;
+
+    private final Downloader downloader;
+    private final Cache<String, HostLimit> limits = CacheBuilder.newBuilder()
+                                                                .maximumSize(MAX_HOSTS)
+                                                                .expireAfterAccess(1, TimeUnit.HOURS)
+                                                                .build();
+
+    private double initialRate = 2;
+    private double minRate = 0.05;
+    private double maxRate = 20;
+    private double increment = 0.1;
+    private double backoffFactor = 0.5;
+    private int maxRetries = 2;
+    private long maxRetryWait = TimeUnit.SECONDS.toMillis(60);
+    private int maxConcurrent;
+    private DnsResolver groupResolver;
+
+    /**
+     * Creates a {@code RateLimitingDownloader} with the given underlying {@code Downloader}.
+     *
+     * @param downloader the given underlying {@code Downloader}.
+     */
+    public RateLimitingDownloader(Downloader downloader) {
+        this.downloader = downloader;
+    }
+
+    @Override
+    public boolean supports(Request request) {
+        return downloader.supports(request);
+    }
+
+    @Override
+    public Response download(Request request) throws IOException {
+        if (!(request instanceof HttpRequest) || ((HttpRequest) request).getRequestTarget().getHost() == null)
+            return downloader.download(request);
+
+        String host = ((HttpRequest) request).getRequestTarget().getHost().toLowerCase();
+        HostLimit limit = limitOf(groupOf(host));
+        for (int attempt = 0; ; attempt++) {
+            // Takes the token once a slot is free, so that the token is not spent on waiting for the slot
+            Response response;
+            limit.enter();
+            try {
+                limit.acquire();
+                response = downloader.download(request);
+            } finally {
+                limit.exit();
+            }
+            if (!(response instanceof HttpResponse))
+                return response;
+
+            HttpResponse hResponse = (HttpResponse) response;
+            int status = hResponse.getStatusCode();
+            if (status != StatusCode.TOO_MANY_REQUESTS && status != StatusCode.SERVICE_UNAVAILABLE) {
+                if (status / 100 == 2 || status / 100 == 3)
+                    limit.increase();
+                return response;
+            }
+
+            long retryAfter = retryAfterOf(hResponse);
+            limit.backOff(retryAfter);
+            if (attempt >= maxRetries || retryAfter > maxRetryWait)
+                return response;
+            LOG.debug("Host {} returned {}, retrying request {} after backing off.", host, status, request);
+            if (response instanceof Closeable)
+                ((Closeable) response).close();
+        }
+    }
+
+    private HostLimit limitOf(final String host) throws IOException {
+        try {
+            return limits.get(host, new Callable<HostLimit>() {
+                @Override
+                public HostLimit call() {
+                    return new HostLimit(host, initialRate, maxConcurrent);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to create the rate limit of " + host, e.getCause());
+        }
+    }
+
+    /**
+     * Returns the key of the politeness group of the given host, which is the lowest of its addresses if hosts
+     * are grouped by IP address and the host can be resolved, or the host itself otherwise.
+     */
+    private String groupOf(String host) {
+        if (groupResolver == null)
+            return host;
+        try {
+            String group = null;
+            for (InetAddress address : groupResolver.resolve(host)) {
+                String candidate = address.getHostAddress();
+                if (group == null || candidate.compareTo(group) < 0)
+                    group = candidate;
+            }
+            return group == null ? host : group;
+        } catch (UnknownHostException e) {
+            return host;
+        }
+    }
+
+    /**
+     * Returns the delay, in milliseconds, given by the {@code Retry-After} header of the given response,
+     * either as a number of seconds or as an HTTP date; returns {@code 0} if there is no valid header.
+     */
+    private static long retryAfterOf(HttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header == null)
+            return 0;
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? 0 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Returns the current rate of the given host, in requests per second; returns the initial rate if the host
+     * has not been requested yet.
+     *
+     * @param host the given host.
+     * @return the current rate of the given host.
+     */
+    public double getRate(String host) {
+        HostLimit limit = limits.getIfPresent(groupOf(host.toLowerCase()));
+        return limit == null ? initialRate : limit.limiter.getRate();
+    }
+
+    /**
+     * Sets the rates between which the rate of each host is adapted, in requests per second.
+     *
+     * @param initialRate the rate of a host before its first response.
+     * @param minRate the minimum rate of a host.
+     * @param maxRate the maximum rate of a host.
+     * @throws IllegalArgumentException if the rates are not positive, or the initial rate is out of bounds.
+     */
+    public void setRates(double initialRate, double minRate, double maxRate) {
+        if (minRate <= 0 || initialRate < minRate || maxRate < initialRate)
+            throw new IllegalArgumentException("Rates must be positive with minRate <= initialRate <= maxRate.");
+        this.initialRate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+    }
+
+    /**
+     * Sets how the rate of a host is adapted.
+     *
+     * @param increment the rate added on every successful response, in requests per second.
+     * @param backoffFactor the factor the rate is multiplied by on every throttling response,
+     *                      between {@code 0} and {@code 1}.
+     * @throws IllegalArgumentException if the increment is negative or the factor is out of bounds.
+     */
+    public void setAdaptation(double increment, double backoffFactor) {
+        if (increment < 0 || backoffFactor <= 0 || backoffFactor >= 1)
+            throw new IllegalArgumentException("The increment must be non-negative and the factor within (0, 1).");
+        this.increment = increment;
+        this.backoffFactor = backoffFactor;
+    }
+
+    /**
+     * Sets how throttled requests are retried.
+     *
+     * @param maxRetries the maximum number of retries of a request; {@code 0} disables retries.
+     * @param maxRetryWait the maximum {@code Retry-After} delay, in milliseconds, for which a request is retried.
+     */
+    public void setRetries(int maxRetries, long maxRetryWait) {
+        this.maxRetries = maxRetries;
+        this.maxRetryWait = maxRetryWait;
+    }
+
+    /**
+     * Groups hosts by IP address, resolving them with the given resolver, so that the hosts served by the same
+     * server, such as the virtual hosts of a shared-hosting or CDN server, share a single rate and concurrency
+     * limit. Hosts which cannot be resolved are limited on their own. On default, every host is limited on its
+     * own. The resolver should be the one used by the underlying downloader, e.g. a {@link CachingDnsResolver},
+     * so that grouping costs no extra lookup.
+     *
+     * @param resolver the {@code DnsResolver} resolving the hosts, or {@code null} to limit every host on its own.
+     */
+    public void setIpGrouping(DnsResolver resolver) {
+        this.groupResolver = resolver;
+    }
+
+    /**
+     * Sets the maximum number of requests downloaded at once from each host, or each group of hosts if hosts are
+     * grouped by IP address. A request takes its slot before its rate token, and counts until its response is
+     * returned by the underlying downloader.
+     * The limit applies to the hosts requested afterwards.
+     *
+     * @param maxConcurrent the maximum number of concurrent requests, or {@code 0} for no limit.
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    @Override
+    public void prewarm(Collection<? extends Request> requests, long timeout) {
+        if (downloader instanceof Prewarmable)
+            ((Prewarmable) downloader).prewarm(requests, timeout);
+    }
+
+    @Override
+    public ContentPolicy getContentPolicy() {
+        return downloader instanceof ContentPolicyAware ? ((ContentPolicyAware) downloader).getContentPolicy() : null;
+    }
+
+    @Override
+    public void setContentPolicy(ContentPolicy contentPolicy) {
+        if (downloader instanceof ContentPolicyAware)
+            ((ContentPolicyAware) downloader).setContentPolicy(contentPolicy);
+    }
+
+    @Override
+    public void close() throws IOException {
+        downloader.close();
+    }
+
+    /**
+     * The token bucket and concurrency slots of a host or group of hosts, along with the time before which it must
+     * not be requested.
+     */
+    private class HostLimit {
+        final String host;
+        final RateLimiter limiter;
+        final Semaphore slots;
+        private long blockedUntil;
+
+        HostLimit(String host, double rate, int maxConcurrent) {
+            this.host = host;
+            this.limiter = RateLimiter.create(rate);
+            this.slots = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+        }
+
+        void enter() throws InterruptedIOException {
+            if (slots == null)
+                return;
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a free slot of " + host);
+            }
+        }
+
+        void exit() {
+            if (slots != null)
+                slots.release();
+        }
+
+        void acquire() throws InterruptedIOException {
+            long wait;
+            synchronized (this) {
+                wait = blockedUntil - System.currentTimeMillis();
+            }
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for Retry-After.");
+                }
+            }
+            limiter.acquire();
+        }
+
+        synchronized void increase() {
+            double rate = limiter.getRate();
+            if (rate < maxRate)
+                limiter.setRate(Math.min(maxRate, rate + increment));
+        }
+
+        synchronized void backOff(long retryAfter) {
+            double rate = Math.max(minRate, limiter.getRate() * backoffFactor);
+            limiter.setRate(rate);
+            blockedUntil = Math.max(blockedUntil, System.currentTimeMillis() + retryAfter);
+            LOG.info("Host {} is throttling, backing off to {} requests per second, pausing for {}ms.",
+                     host, rate, retryAfter);
+        }
+    }
+}
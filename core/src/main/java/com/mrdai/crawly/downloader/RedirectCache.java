@@ -0,0 +1,130 @@
+package com.mrdai.crawly.downloader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mrdai.crawly.network.http.StatusCode;
+
+import java.net.URI;
+
+/**
+ * A thread-safe cache of the redirects followed by an {@link HttpDownloader}, mapping each redirecting URL,
+ * i.e. alias, to the URL it redirects to.
+ * <p>
+ * Given to {@link HttpDownloader#setRedirectCache(RedirectCache)}, the cache learns the redirects of every
+ * downloaded {@code GET} request, and the downloader sends later requests for known aliases straight to their
+ * final URL, saving the round trips of the redirect chain. Given to a
+ * {@link com.mrdai.crawly.scheduler.RedirectScheduler RedirectScheduler}, it lets requests for known aliases be
+ * skipped or rewritten before they are scheduled.
+ * <p>
+ * Only permanent redirects, i.e. {@code 301} and {@code 308}, are cached on default, as temporary redirects such
+ * as login pages may change from one request to the next. Redirects whose status code is unknown, e.g. those
+ * followed by a preconfigured {@code HttpClient}, count as temporary. Both the aliases and the final URLs reached
+ * through redirects are remembered, at most {@code 100000} of each on default, evicting the least recently used
+ * first.
+ */
+public class RedirectCache {
+    private static final int MAX_HOPS = 20;
+
+    private final Cache<String, URI> aliases;
+    private final Cache<String, Boolean> targets;
+    private final boolean includeTemporary;
+
+    /**
+     * Creates a {@code RedirectCache} of the default size, which caches permanent redirects only.
+     */
+    public RedirectCache() {
+        this(100000, false);
+    }
+
+    /**
+     * Creates a {@code RedirectCache} of the given size.
+     *
+     * @param maxSize the maximum number of aliases, and of final URLs, to remember.
+     * @param includeTemporary {@code true} to cache temporary redirects as well.
+     */
+    public RedirectCache(long maxSize, boolean includeTemporary) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("The size of the cache must be positive.");
+        this.aliases = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+        this.targets = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+        this.includeTemporary = includeTemporary;
+    }
+
+    /**
+     * Records that the given URL has redirected to the given location with the given status code. Temporary
+     * redirects are ignored unless the cache includes them.
+     *
+     * @param from the redirecting URL.
+     * @param to the location it redirected to.
+     * @param statusCode the status code of the redirect, or {@code 0} if it is unknown.
+     */
+    public void put(URI from, URI to, int statusCode) {
+        if (!isCacheable(statusCode) || from.equals(to))
+            return;
+        aliases.put(keyOf(from), to);
+    }
+
+    /**
+     * Records that the given URL has been downloaded as the final URL of a redirect chain.
+     *
+     * @param target the final URL of the redirect chain.
+     */
+    public void putTarget(URI target) {
+        targets.put(keyOf(target), Boolean.TRUE);
+    }
+
+    /**
+     * Returns the final URL the given URL is known to redirect to, following cached redirects transitively;
+     * returns {@code null} if the given URL is not a known alias.
+     *
+     * @param uri the given URL.
+     * @return the final URL, or {@code null} if the given URL is not a known alias.
+     */
+    public URI resolve(URI uri) {
+        URI target = aliases.getIfPresent(keyOf(uri));
+        if (target == null)
+            return null;
+        for (int hops = 1; hops < MAX_HOPS; hops++) {
+            URI next = aliases.getIfPresent(keyOf(target));
+            if (next == null)
+                break;
+            target = next;
+        }
+        return target;
+    }
+
+    /**
+     * Returns if the given URL has been downloaded as the final URL of a redirect chain.
+     *
+     * @param uri the given URL.
+     * @return {@code true} if the given URL is a known final URL; {@code false} otherwise.
+     */
+    public boolean isTarget(URI uri) {
+        return targets.getIfPresent(keyOf(uri)) != null;
+    }
+
+    /**
+     * Returns if redirects with the given status code are cached.
+     *
+     * @param statusCode the status code of a redirect, or {@code 0} if it is unknown.
+     * @return {@code true} if such redirects are cached; {@code false} otherwise.
+     */
+    public boolean isCacheable(int statusCode) {
+        switch (statusCode) {
+            case StatusCode.MOVED_PERMANENTLY:
+            case StatusCode.PERMANENT_REDIRECT:
+                return true;
+            default:
+                return includeTemporary;
+        }
+    }
+
+    /** Returns the number of aliases currently cached. */
+    public long getAliasCount() {
+        return aliases.size();
+    }
+
+    private static String keyOf(URI uri) {
+        return uri.toASCIIString();
+    }
+}
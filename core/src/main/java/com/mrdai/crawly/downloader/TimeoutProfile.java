@@ -0,0 +1,51 @@
+package com.mrdai.crawly.downloader;
+
+/**
+ * The timeouts applied to the requests to a class of hosts, in milliseconds. A timeout of {@code 0} means
+ * no timeout, while a negative timeout leaves the default of the underlying client in effect.
+ * <p>
+ * The connect timeout bounds establishing a connection, the read timeout bounds the wait for each packet of
+ * data, and the total timeout bounds the whole request, from sending it until its body has been read to the end
+ * or closed, even if the body is streamed to the caller after the response is returned, after which the request
+ * is aborted.
+ *
+ * @see HttpDownloader#setTimeoutProfile(String, TimeoutProfile)
+ */
+public class TimeoutProfile {
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long totalTimeout;
+
+    /**
+     * Creates a {@code TimeoutProfile} with the given timeouts, in milliseconds.
+     *
+     * @param connectTimeout the timeout of establishing a connection.
+     * @param readTimeout the maximum time to wait for data.
+     * @param totalTimeout the timeout of the whole request.
+     */
+    public TimeoutProfile(int connectTimeout, int readTimeout, long totalTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.totalTimeout = totalTimeout;
+    }
+
+    /** Returns the timeout of establishing a connection, in milliseconds. */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /** Returns the maximum time to wait for data, in milliseconds. */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /** Returns the timeout of the whole request, in milliseconds. */
+    public long getTotalTimeout() {
+        return totalTimeout;
+    }
+
+    @Override
+    public String toString() {
+        return "connect " + connectTimeout + "ms, read " + readTimeout + "ms, total " + totalTimeout + "ms";
+    }
+}
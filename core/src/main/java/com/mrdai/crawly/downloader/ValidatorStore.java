@@ -0,0 +1,192 @@
+package com.mrdai.crawly.downloader;
+
+import com.google.common.io.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent store of the cache validators, i.e. the {@code ETag} and {@code Last-Modified} headers,
+ * of previously downloaded URLs, which lets {@link HttpDownloader} issue conditional requests on recrawls.
+ * <p>
+ * The store is an append-only log file: every update is appended as a record and flushed to the file right away,
+ * so that a crash loses at most the record being written. The whole log is loaded into memory when the store is
+ * opened; a record cut short by a crash is ignored, and cut off the file before new records are appended. When
+ * the log holds many more records than distinct URLs, it is compacted on open, as well as on {@link #close()}.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see HttpDownloader#setValidatorStore(ValidatorStore)
+ */
+public class ValidatorStore implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ValidatorStore.class);
+
+    private static final int COMPACTION_RATIO = 2;
+
+    private final File file;
+    private final Map<String, Validators> validators = new ConcurrentHashMap<>();
+    private DataOutputStream log;
+    private long records;
+
+    /**
+     * Opens the store backed by the file with the given pathname, creating the file if it does not exist.
+     *
+     * @param pathname the pathname of the backing file.
+     * @throws IOException if the file cannot be read or written.
+     */
+    public ValidatorStore(String pathname) throws IOException {
+        this.file = new File(pathname);
+        if (file.exists())
+            load();
+        if (records > (long) validators.size() * COMPACTION_RATIO)
+            compact();
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private void load() throws IOException {
+        // The length of the log up to the end of its last complete record
+        long length = 0;
+        CountingInputStream counting = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try (DataInputStream in = new DataInputStream(counting)) {
+            while (true) {
+                String url = in.readUTF();
+                String etag = in.readUTF();
+                String lastModified = in.readUTF();
+                records++;
+                length = counting.getCount();
+                if (etag.isEmpty() && lastModified.isEmpty())
+                    validators.remove(url);
+                else
+                    validators.put(url, new Validators(etag, lastModified));
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            LOG.debug("Loaded {} validators from {} records in {}.", validators.size(), records, file);
+        }
+
+        if (length < file.length()) {
+            LOG.warn("Cutting off {} bytes of an incomplete record at the end of {}.", file.length() - length, file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length);
+            }
+        }
+    }
+
+    /** Rewrites the log with a single record per URL. */
+    private void compact() throws IOException {
+        File compacted = new File(file.getPath() + ".compact");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)))) {
+            for (Map.Entry<String, Validators> entry : validators.entrySet())
+                write(out, entry.getKey(), entry.getValue());
+        }
+        if (!compacted.renameTo(file) && !(file.delete() && compacted.renameTo(file)))
+            throw new IOException("Failed to replace " + file + " with its compacted log.");
+        records = validators.size();
+    }
+
+    /**
+     * Returns the validators recorded for the given URL; returns {@code null} if there is none.
+     *
+     * @param url the given URL.
+     * @return the validators recorded for the given URL, or {@code null}.
+     */
+    public Validators get(String url) {
+        return validators.get(url);
+    }
+
+    /**
+     * Records the given validators for the given URL. If both validators are {@code null},
+     * the validators of the URL are removed.
+     *
+     * @param url the given URL.
+     * @param etag the {@code ETag} of the URL, or {@code null}.
+     * @param lastModified the {@code Last-Modified} date of the URL, or {@code null}.
+     * @throws IOException if the update cannot be written to the log.
+     */
+    public synchronized void put(String url, String etag, String lastModified) throws IOException {
+        Validators value = new Validators(etag == null ? "" : etag, lastModified == null ? "" : lastModified);
+        if (value.equals(validators.get(url)) || (value.isEmpty() && !validators.containsKey(url)))
+            return;
+        if (value.isEmpty())
+            validators.remove(url);
+        else
+            validators.put(url, value);
+        write(log, url, value);
+        log.flush();
+        records++;
+    }
+
+    private static void write(DataOutputStream out, String url, Validators value) throws IOException {
+        out.writeUTF(url);
+        out.writeUTF(value.etag);
+        out.writeUTF(value.lastModified);
+    }
+
+    /**
+     * Closes the backing file, compacting it if necessary.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (log == null)
+            return;
+        log.close();
+        log = null;
+        if (records > (long) validators.size() * COMPACTION_RATIO)
+            compact();
+    }
+
+    /**
+     * The cache validators of a URL. Validators missing from the response are represented as empty strings.
+     */
+    public static class Validators {
+        private final String etag;
+        private final String lastModified;
+
+        Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /** Returns the {@code ETag} of the URL; returns an empty string if there is none. */
+        public String getEtag() {
+            return etag;
+        }
+
+        /** Returns the {@code Last-Modified} date of the URL; returns an empty string if there is none. */
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        boolean isEmpty() {
+            return etag.isEmpty() && lastModified.isEmpty();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Validators))
+                return false;
+            Validators that = (Validators) o;
+            return etag.equals(that.etag) && lastModified.equals(that.lastModified);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * etag.hashCode() + lastModified.hashCode();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.mrdai.crawly.downloader;
+
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.Response;
+import com.mrdai.crawly.network.http.HttpRequest;
+import com.mrdai.crawly.network.http.HttpResponse;
+import com.mrdai.crawly.warc.WarcWriter;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A {@link Downloader} which records every HTTP exchange made through the given underlying {@code Downloader}
+ * to WARC files with the given {@link WarcWriter}, so that the crawl can later be replayed offline with a
+ * {@link WarcReplayDownloader}.
+ * <p>
+ * The body of each {@link HttpResponse} is recorded along with the request and the response headers, and handed
+ * to the page processors as an entity reading the record back from the WARC file. Each body is read in full before
+ * its exchange is appended to the WARC file, as described in {@link WarcWriter#write}, so that exchanges recorded
+ * concurrently never wait on a slow host. As the bodies returned by {@link HttpDownloader} are already decoded,
+ * the recorded responses are the decoded ones. Responses other than {@code HttpResponse}s are returned without
+ * being recorded.
+ * <p>
+ * Closing this downloader closes both the underlying downloader and the {@code WarcWriter}.
+ */
+public class WarcRecordingDownloader implements Downloader, Prewarmable, ContentPolicyAware {
+    private final Downloader downloader;
+    private final WarcWriter writer;
+
+    /**
+     * Creates a {@code WarcRecordingDownloader} with the given underlying {@code Downloader} and {@code WarcWriter}.
+     *
+     * @param downloader the given underlying {@code Downloader}.
+     * @param writer the {@code WarcWriter} recording the exchanges.
+     */
+    public WarcRecordingDownloader(Downloader downloader, WarcWriter writer) {
+        this.downloader = downloader;
+        this.writer = writer;
+    }
+
+    @Override
+    public boolean supports(Request request) {
+        return downloader.supports(request);
+    }
+
+    @Override
+    public Response download(Request request) throws IOException {
+        Response response = downloader.download(request);
+        if (!(request instanceof HttpRequest) || !(response instanceof HttpResponse))
+            return response;
+
+        HttpRequest hRequest = (HttpRequest) request;
+        HttpResponse hResponse = (HttpResponse) response;
+        HttpEntity entity = hResponse.getEntity();
+        AbstractHttpEntity recorded;
+        try {
+            if (entity == null)
+                recorded = writer.write(hRequest, hResponse, null, 0);
+            else
+                recorded = writer.write(hRequest, hResponse, entity.getContent(), entity.getContentLength());
+        } finally {
+            if (response instanceof Closeable)
+                ((Closeable) response).close();
+        }
+
+        if (recorded != null) {
+            recorded.setContentType(entity.getContentType());
+            recorded.setContentEncoding(entity.getContentEncoding());
+            hResponse.setEntity(recorded);
+        }
+        return response;
+    }
+
+    @Override
+    public void prewarm(Collection<? extends Request> requests, long timeout) {
+        if (downloader instanceof Prewarmable)
+            ((Prewarmable) downloader).prewarm(requests, timeout);
+    }
+
+    @Override
+    public ContentPolicy getContentPolicy() {
+        return downloader instanceof ContentPolicyAware ? ((ContentPolicyAware) downloader).getContentPolicy() : null;
+    }
+
+    @Override
+    public void setContentPolicy(ContentPolicy contentPolicy) {
+        if (downloader instanceof ContentPolicyAware)
+            ((ContentPolicyAware) downloader).setContentPolicy(contentPolicy);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            downloader.close();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.mrdai.crawly.downloader;
+
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.Response;
+import com.mrdai.crawly.network.http.BasicHttpResponse;
+import com.mrdai.crawly.network.http.HttpRequest;
+import com.mrdai.crawly.warc.WarcIndex;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link Downloader} which serves the HTTP responses recorded in WARC files, e.g. by a
+ * {@link WarcRecordingDownloader}, without any network access, which makes crawls reproducible and lets the
+ * throughput of processors and pipelines be measured offline.
+ * <p>
+ * The responses are looked up in a {@link WarcIndex} by the method and URI of each request, and their bodies
+ * are streamed straight from the memory-mapped WARC files. A request without recorded response fails with a
+ * {@link FileNotFoundException}.
+ *
+ * @see WarcIndex
+ */
+public class WarcReplayDownloader implements Downloader {
+    private final WarcIndex index;
+
+    /**
+     * Creates a {@code WarcReplayDownloader} serving the responses recorded in the given WARC file, or in every
+     * {@code .warc} file of the given directory, in the order of their names.
+     *
+     * @param path the given WARC file or directory.
+     * @throws IOException if the WARC files cannot be read or are malformed.
+     */
+    public WarcReplayDownloader(Path path) throws IOException {
+        this(new WarcIndex(warcFilesOf(path)));
+    }
+
+    /**
+     * Creates a {@code WarcReplayDownloader} serving the responses of the given {@code WarcIndex}.
+     *
+     * @param index the given {@code WarcIndex}.
+     */
+    public WarcReplayDownloader(WarcIndex index) {
+        this.index = index;
+    }
+
+    private static List<Path> warcFilesOf(Path path) throws IOException {
+        if (!Files.isDirectory(path))
+            return Collections.singletonList(path);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*.warc")) {
+            for (Path file : stream)
+                files.add(file);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    @Override
+    public boolean supports(Request request) {
+        return request instanceof HttpRequest;
+    }
+
+    @Override
+    public Response download(Request request) throws IOException {
+        HttpRequest hRequest = (HttpRequest) request;
+        String uri = hRequest.getRequestTarget().toASCIIString();
+        BasicHttpResponse response = index.get(request, hRequest.getMethod(), uri);
+        if (response == null)
+            throw new FileNotFoundException("No response has been recorded for " + hRequest);
+        return response;
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,23 @@
+package com.mrdai.crawly.network;
+
+/**
+ * Basic implementation of {@link Request}, which holds the {@link CrawlMetadata} of the request.
+ * <p>
+ * Custom requests should extend this class rather than implement {@code Request} directly, so that they
+ * keep compiling as methods are added to {@code Request}.
+ *
+ * @since 0.1
+ */
+public abstract class AbstractRequest implements Request {
+    private CrawlMetadata metadata;
+
+    @Override
+    public CrawlMetadata getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public void setMetadata(CrawlMetadata metadata) {
+        this.metadata = metadata;
+    }
+}
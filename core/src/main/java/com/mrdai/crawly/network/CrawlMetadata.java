@@ -0,0 +1,142 @@
+package com.mrdai.crawly.network;
+
+/**
+ * A {@code CrawlMetadata} records how a {@link Request} was discovered during a crawl, including its depth,
+ * the {@code Request} it was found in, the time it was discovered and how many times it has been attempted.
+ * <p>
+ * Starting requests added via {@link com.mrdai.crawly.Crawler#addStartRequest(Request) Crawler#addStartRequest}
+ * have a depth of {@code 0} and no parent. Requests added by a {@code PageProcessor} via
+ * {@link com.mrdai.crawly.ResultItems#addRequest(Request) ResultItems#addRequest} are assigned a metadata one level
+ * deeper than the request being processed, right before they are pushed to the scheduler.
+ * <p>
+ * Note that a {@code CrawlMetadata} keeps a reference to its parent {@code Request}, so the chain of ancestors of
+ * every waiting request stays reachable until the request itself is polled and processed.
+ *
+ * @see Request
+ * @see com.mrdai.crawly.scheduler.DepthLimitScheduler
+ */
+public class CrawlMetadata {
+    private final int depth;
+    private final Request parent;
+    private final long discoveredAt;
+    private int attempts;
+    private int outLinks;
+    private boolean countedAsOutLink;
+
+    /**
+     * Creates a {@code CrawlMetadata} for a starting request, with depth {@code 0} and no parent.
+     */
+    public CrawlMetadata() {
+        this(0, null);
+    }
+
+    /**
+     * Creates a {@code CrawlMetadata} for a request discovered in the given parent {@code Request}.
+     * The depth of the new metadata will be one level deeper than that of the parent; if the parent
+     * has no metadata, it is considered a starting request.
+     *
+     * @param parent the {@code Request} in whose response the new request was discovered.
+     */
+    public CrawlMetadata(Request parent) {
+        this(parent.getMetadata() == null ? 1 : parent.getMetadata().getDepth() + 1, parent);
+    }
+
+    private CrawlMetadata(int depth, Request parent) {
+        this.depth = depth;
+        this.parent = parent;
+        this.discoveredAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the number of links between the starting request and the request, i.e. {@code 0} for
+     * starting requests, {@code 1} for requests discovered in their responses, and so on.
+     *
+     * @return the depth of the request.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the {@code Request} in whose response the request was discovered;
+     * returns {@code null} for starting requests.
+     *
+     * @return the parent {@code Request}; {@code null} for starting requests.
+     */
+    public Request getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns the time, in milliseconds since the epoch, when the request was discovered.
+     *
+     * @return the discovery time of the request.
+     */
+    public long getDiscoveredAt() {
+        return discoveredAt;
+    }
+
+    /**
+     * Returns how many times the crawler has tried to download the request.
+     *
+     * @return the attempt count of the request.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Increments the attempt count of the request and returns the new value.
+     *
+     * @return the attempt count after the increment.
+     */
+    public int incrementAttempts() {
+        return ++attempts;
+    }
+
+    /**
+     * Returns how many requests discovered in the response of this request have been accepted by
+     * a {@link com.mrdai.crawly.scheduler.DepthLimitScheduler DepthLimitScheduler}.
+     *
+     * @return the number of accepted out-links of the request.
+     */
+    public int getOutLinks() {
+        return outLinks;
+    }
+
+    /**
+     * Increments the number of accepted out-links of the request and returns the new value.
+     *
+     * @return the number of accepted out-links after the increment.
+     */
+    public int incrementOutLinks() {
+        return ++outLinks;
+    }
+
+    /**
+     * Returns if the request has been counted as an accepted out-link of its parent.
+     *
+     * @return {@code true} if the request has been counted as an out-link of its parent; {@code false} otherwise.
+     */
+    public boolean isCountedAsOutLink() {
+        return countedAsOutLink;
+    }
+
+    /**
+     * Marks the request as counted as an accepted out-link of its parent, and returns {@code true} if it was not
+     * counted yet, so that a request pushed again for retry is counted only once.
+     *
+     * @return {@code true} if the request was not counted yet; {@code false} otherwise.
+     */
+    public boolean markCountedAsOutLink() {
+        if (countedAsOutLink)
+            return false;
+        countedAsOutLink = true;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + depth + ", attempts=" + attempts + ", parent=" + parent;
+    }
+}
@@ -0,0 +1,75 @@
+package com.mrdai.crawly.network;
+
+import java.nio.file.Path;
+
+/**
+ * The outcome of a transfer written straight to a local file: the file, the range of it written by the
+ * transfer, and the checksum of the whole file, if requested.
+ *
+ * @see FileTransfer
+ */
+public class DownloadedFile {
+    private final Path path;
+    private final long offset;
+    private final long transferred;
+    private final String checksumAlgorithm;
+    private final String checksum;
+
+    /**
+     * Creates a {@code DownloadedFile}.
+     *
+     * @param path the local file.
+     * @param offset the position at which the transfer started writing, i.e. the number of bytes resumed from.
+     * @param transferred the number of bytes written by the transfer.
+     * @param checksumAlgorithm the name of the checksum algorithm, or {@code null}.
+     * @param checksum the lowercase hexadecimal checksum of the whole file, or {@code null}.
+     */
+    public DownloadedFile(Path path, long offset, long transferred, String checksumAlgorithm, String checksum) {
+        this.path = path;
+        this.offset = offset;
+        this.transferred = transferred;
+        this.checksumAlgorithm = checksumAlgorithm;
+        this.checksum = checksum;
+    }
+
+    /** Returns the local file. */
+    public Path getPath() {
+        return path;
+    }
+
+    /** Returns the position at which the transfer started writing; {@code 0} unless it resumed a partial file. */
+    public long getOffset() {
+        return offset;
+    }
+
+    /** Returns the number of bytes written by the transfer. */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /** Returns the length of the file after the transfer. */
+    public long getLength() {
+        return offset + transferred;
+    }
+
+    /** Returns if the transfer resumed a partial file. */
+    public boolean isResumed() {
+        return offset > 0;
+    }
+
+    /** Returns the name of the checksum algorithm, e.g. {@code SHA-256}; returns {@code null} if there is none. */
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /** Returns the lowercase hexadecimal checksum of the whole file; returns {@code null} if there is none. */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + getLength() + " bytes" + (checksum == null ? "" : ", " + checksumAlgorithm + ' '
+                                                                                 + checksum) + ')';
+    }
+}
@@ -0,0 +1,165 @@
+package com.mrdai.crawly.network;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility class for writing transferred content straight to a local file through a {@link FileChannel}.
+ * <p>
+ * The content is moved with {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}, which reuses
+ * a direct buffer cached by the JVM, so that no heap is allocated per chunk, and the checksum is updated
+ * from the same buffer as the content goes through it. A transfer can resume a partial file, in which case
+ * the checksum of the existing part is computed from the memory-mapped file beforehand.
+ */
+public final class FileTransfer {
+    private static final long TRANSFER_CHUNK = 1 << 20;
+    private static final long DIGEST_REGION = 64 << 20;
+
+    /**
+     * Writes the content of the given stream to the given file, starting at the given offset, and returns
+     * the outcome. The file is created if it does not exist, and truncated to the given offset otherwise.
+     * The given stream is not closed.
+     *
+     * @param in the given stream.
+     * @param file the given file.
+     * @param offset the position at which to start writing, i.e. the length of the part to keep.
+     * @param checksumAlgorithm the name of a {@link MessageDigest} algorithm, e.g. {@code SHA-256},
+     *                          or {@code null} to skip checksums.
+     * @return the outcome of the transfer.
+     * @throws IOException if an I/O exception occurs, or the offset is beyond the end of the file.
+     * @throws IllegalArgumentException if the checksum algorithm is not supported.
+     */
+    public static DownloadedFile transfer(InputStream in, Path file, long offset, String checksumAlgorithm)
+        throws IOException {
+        return transfer(in, file, offset, digestOf(checksumAlgorithm));
+    }
+
+    /**
+     * Writes the content of the given stream to the given file, starting at the given offset, and returns
+     * the outcome, computing the checksum of the file with the given digest. The file is created if it does not
+     * exist, and truncated to the given offset otherwise. The given stream is not closed.
+     *
+     * @param in the given stream.
+     * @param file the given file.
+     * @param offset the position at which to start writing, i.e. the length of the part to keep.
+     * @param digest a fresh {@link MessageDigest}, as returned by {@link #digestOf(String)}, or {@code null}
+     *               to skip checksums.
+     * @return the outcome of the transfer.
+     * @throws IOException if an I/O exception occurs, or the offset is beyond the end of the file.
+     */
+    public static DownloadedFile transfer(InputStream in, Path file, long offset, MessageDigest digest)
+        throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            if (offset > channel.size())
+                throw new IOException("Cannot resume at " + offset + " as " + file + " is shorter.");
+            channel.truncate(offset);
+            if (digest != null)
+                digest(channel, offset, digest);
+
+            DigestingChannel source = new DigestingChannel(Channels.newChannel(in), digest);
+            long position = offset;
+            while (!source.eof)
+                position += channel.transferFrom(source, position, TRANSFER_CHUNK);
+            return new DownloadedFile(file, offset, position - offset, digest == null ? null : digest.getAlgorithm(),
+                                      digest == null ? null : BaseEncoding.base16().lowerCase()
+                                                                          .encode(digest.digest()));
+        }
+    }
+
+    /**
+     * Returns the outcome of a transfer which found the given file already complete, computing its checksum.
+     *
+     * @param file the given file.
+     * @param checksumAlgorithm the name of a {@link MessageDigest} algorithm, or {@code null} to skip checksums.
+     * @return the outcome of the transfer.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the checksum algorithm is not supported.
+     */
+    public static DownloadedFile complete(Path file, String checksumAlgorithm) throws IOException {
+        MessageDigest digest = digestOf(checksumAlgorithm);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (digest != null)
+                digest(channel, length, digest);
+            return new DownloadedFile(file, length, 0, checksumAlgorithm,
+                                      digest == null ? null : BaseEncoding.base16().lowerCase()
+                                                                          .encode(digest.digest()));
+        }
+    }
+
+    /**
+     * Returns a new {@code MessageDigest} of the given algorithm, so that an unsupported algorithm can be reported
+     * before a transfer starts.
+     *
+     * @param algorithm the name of a {@link MessageDigest} algorithm, or {@code null}.
+     * @return a new {@code MessageDigest}, or {@code null} if the given algorithm is {@code null}.
+     * @throws IllegalArgumentException if the algorithm is not supported.
+     */
+    public static MessageDigest digestOf(String algorithm) {
+        if (algorithm == null)
+            return null;
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+        }
+    }
+
+    /** Updates the given digest with the first {@code length} bytes of the given file, mapped region by region. */
+    private static void digest(FileChannel channel, long length, MessageDigest digest) throws IOException {
+        for (long position = 0; position < length; position += DIGEST_REGION)
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                      Math.min(DIGEST_REGION, length - position)));
+    }
+
+    /** {@code ReadableByteChannel} updating a digest with the bytes read and remembering the end of stream. */
+    private static class DigestingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private final MessageDigest digest;
+        boolean eof;
+
+        DigestingChannel(ReadableByteChannel channel, MessageDigest digest) {
+            this.channel = channel;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int start = dst.position();
+            int n = channel.read(dst);
+            if (n < 0) {
+                eof = true;
+            } else if (n > 0 && digest != null) {
+                ByteBuffer read = dst.duplicate();
+                read.limit(dst.position()).position(start);
+                digest.update(read);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private FileTransfer() {
+        throw new AssertionError("FileTransfer should not be instantiated!");
+    }
+}
@@ -9,10 +9,30 @@ package com.mrdai.crawly.network;
  *     {@code Request} is just a simple container, which should not be reused for multiple http requests,
  *     as it is not thread-safe and might cause many problems.
  * </p>
+ * <p>
+ *     Custom requests should extend {@link AbstractRequest} instead of implementing this interface directly,
+ *     as methods may be added to this interface, such as {@link #getMetadata()} and
+ *     {@link #setMetadata(CrawlMetadata)}, which every direct implementation then has to implement.
+ * </p>
  *
  * @author Mr-Dai
  * @since 0.1
  */
 public interface Request {
     String toString();
+
+    /**
+     * Returns the {@code CrawlMetadata} of this {@code Request}, describing how it was discovered;
+     * returns {@code null} if the {@code Request} has not been scheduled by a crawler yet.
+     *
+     * @return the {@code CrawlMetadata} of this {@code Request}, or {@code null}.
+     */
+    CrawlMetadata getMetadata();
+
+    /**
+     * Associates the given {@code CrawlMetadata} with this {@code Request}.
+     *
+     * @param metadata the given {@code CrawlMetadata}.
+     */
+    void setMetadata(CrawlMetadata metadata);
 }
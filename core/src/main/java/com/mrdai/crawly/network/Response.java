@@ -2,6 +2,9 @@ package com.mrdai.crawly.network;
 
 /**
  * A {@code Response} represents a network response fetched by {@code Downloader}.
+ * <p>
+ * A {@code Response} holding resources, such as a network connection, should implement {@link java.io.Closeable};
+ * the {@link com.mrdai.crawly.Crawler Crawler} closes it once it has gone through the processors and pipelines.
  *
  * @author Mr-Dai
  * @since 0.1
@@ -1,6 +1,6 @@
 package com.mrdai.crawly.network.ftp;
 
-import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.AbstractRequest;
 import org.apache.commons.net.ftp.FTPCmd;
 
 import java.net.InetSocketAddress;
@@ -20,7 +20,7 @@ import java.net.URI;
  *
  * @see FtpReply
  */
-public class FtpCommand implements Request {
+public class FtpCommand extends AbstractRequest {
     private final InetSocketAddress host;
     private final String command;
     private final String params;
@@ -0,0 +1,29 @@
+package com.mrdai.crawly.network.ftp;
+
+import com.mrdai.crawly.network.DownloadedFile;
+
+/**
+ * The reply to a {@link RetrieveCommand} whose remote file has been written straight to its local file.
+ */
+public class FtpFileReply extends FtpReply {
+    private final DownloadedFile downloadedFile;
+
+    /**
+     * Creates an {@code FtpFileReply} with the corresponding {@code FtpCommand}, the given reply code and
+     * reply text, and the outcome of the transfer.
+     *
+     * @param command the corresponding {@code FtpCommand}.
+     * @param code the given reply code.
+     * @param text the given reply text.
+     * @param downloadedFile the outcome of the transfer.
+     */
+    public FtpFileReply(FtpCommand command, int code, String text, DownloadedFile downloadedFile) {
+        super(command, code, text);
+        this.downloadedFile = downloadedFile;
+    }
+
+    /** Returns the outcome of the transfer. */
+    public DownloadedFile getDownloadedFile() {
+        return downloadedFile;
+    }
+}
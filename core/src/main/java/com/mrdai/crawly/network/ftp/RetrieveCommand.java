@@ -7,6 +7,8 @@ public class RetrieveCommand extends FtpCommand {
     private final String remotePathname;
     private final String localPathname;
     private final OutputStream localStream;
+    private boolean resume;
+    private String checksumAlgorithm = "SHA-256";
 
     public RetrieveCommand(InetSocketAddress host, String remotePathname, String localPathname) {
         this(host, remotePathname, localPathname, null);
@@ -35,4 +37,43 @@ public class RetrieveCommand extends FtpCommand {
     public OutputStream getLocalStream() {
         return localStream;
     }
+
+    /**
+     * Returns if an existing partial local file is resumed. Only applies to commands with a local pathname.
+     *
+     * @return {@code true} if an existing partial local file is resumed; {@code false} otherwise.
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Sets if an existing partial local file is resumed with a {@code REST} command, instead of being rewritten.
+     * Only applies to commands with a local pathname. On default, local files are rewritten.
+     *
+     * @param resume {@code true} to resume an existing partial local file; {@code false} to rewrite it.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Returns the name of the checksum algorithm of the local file, or {@code null} if no checksum is computed.
+     *
+     * @return the name of the checksum algorithm, or {@code null}.
+     */
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /**
+     * Sets the name of the {@link java.security.MessageDigest MessageDigest} algorithm of the checksum of the
+     * local file, computed as the file is written. Only applies to commands with a local pathname.
+     * On default, {@code SHA-256} checksums are computed.
+     *
+     * @param checksumAlgorithm the name of the algorithm, or {@code null} to skip checksums.
+     */
+    public void setChecksumAlgorithm(String checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
 }
@@ -7,66 +7,103 @@ import org.apache.http.message.HeaderGroup;
 
 /**
  * Basic implementation of {@link HttpMessage}.
+ * <p>
+ * The headers of the message are either held by the message itself, or, for messages adapted from Apache
+ * HttpClient, read from and written to the underlying {@link org.apache.http.HttpMessage} directly, so that
+ * they are never copied. Subclasses access the headers through the methods of {@link HttpMessage}, which work
+ * alike in both cases.
  *
  * @since 0.1
  */
 public abstract class AbstractHttpMessage implements HttpMessage {
 
-    protected final HeaderGroup headers = new HeaderGroup();
+    private final HeaderGroup headers;
+    private final org.apache.http.HttpMessage view;
+
+    /**
+     * Creates a message holding its own headers.
+     */
+    protected AbstractHttpMessage() {
+        this.headers = new HeaderGroup();
+        this.view = null;
+    }
+
+    /**
+     * Creates a message whose headers are those of the given Apache HttpClient message.
+     * Changes to the headers of either message are visible through the other.
+     *
+     * @param view the given Apache HttpClient message.
+     */
+    protected AbstractHttpMessage(org.apache.http.HttpMessage view) {
+        this.headers = null;
+        this.view = view;
+    }
 
     @Override
     public boolean containsHeader(final String name) {
-        return headers.containsHeader(name);
+        return view != null ? view.containsHeader(name) : headers.containsHeader(name);
     }
 
     @Override
     public Header[] getHeaders(final String name) {
-        return headers.getHeaders(name);
+        return view != null ? view.getHeaders(name) : headers.getHeaders(name);
     }
 
     @Override
     public Header getFirstHeader(final String name) {
-        return headers.getFirstHeader(name);
+        return view != null ? view.getFirstHeader(name) : headers.getFirstHeader(name);
     }
 
     @Override
     public Header getLastHeader(final String name) {
-        return headers.getLastHeader(name);
+        return view != null ? view.getLastHeader(name) : headers.getLastHeader(name);
     }
 
     @Override
     public Header[] getAllHeaders() {
-        return headers.getAllHeaders();
+        return view != null ? view.getAllHeaders() : headers.getAllHeaders();
     }
 
     @Override
     public void addHeader(final Header header) {
-        headers.addHeader(header);
+        if (view != null)
+            view.addHeader(header);
+        else
+            headers.addHeader(header);
     }
 
     @Override
     public void addHeader(final String name, final String value) {
-        headers.addHeader(new BasicHeader(name, value));
+        addHeader(new BasicHeader(name, value));
     }
 
     @Override
     public void setHeader(final Header header) {
-        headers.updateHeader(header);
+        if (view != null)
+            view.setHeader(header);
+        else
+            headers.updateHeader(header);
     }
 
     @Override
     public void setHeader(final String name, final String value) {
-        headers.updateHeader(new BasicHeader(name, value));
+        setHeader(new BasicHeader(name, value));
     }
 
     @Override
     public void setHeaders(final Header[] newHeaders) {
-        headers.setHeaders(newHeaders);
+        if (view != null)
+            view.setHeaders(newHeaders);
+        else
+            headers.setHeaders(newHeaders);
     }
 
     @Override
     public void removeHeader(final Header header) {
-        headers.removeHeader(header);
+        if (view != null)
+            view.removeHeader(header);
+        else
+            headers.removeHeader(header);
     }
 
     @Override
@@ -74,6 +111,10 @@ public abstract class AbstractHttpMessage implements HttpMessage {
         if (name == null) {
             return;
         }
+        if (view != null) {
+            view.removeHeaders(name);
+            return;
+        }
         for (final HeaderIterator i = headers.iterator(); i.hasNext(); ) {
             final Header header = i.nextHeader();
             if (name.equalsIgnoreCase(header.getName())) {
@@ -84,12 +125,12 @@ public abstract class AbstractHttpMessage implements HttpMessage {
 
     @Override
     public HeaderIterator headerIterator() {
-        return headers.iterator();
+        return view != null ? view.headerIterator() : headers.iterator();
     }
 
     @Override
     public HeaderIterator headerIterator(final String name) {
-        return headers.iterator(name);
+        return view != null ? view.headerIterator(name) : headers.iterator(name);
     }
 
 }
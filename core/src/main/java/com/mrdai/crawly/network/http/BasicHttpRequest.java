@@ -1,5 +1,6 @@
 package com.mrdai.crawly.network.http;
 
+import com.mrdai.crawly.network.CrawlMetadata;
 import org.apache.http.HttpVersion;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.methods.HttpUriRequest;
@@ -8,13 +9,19 @@ import java.net.URI;
 
 /**
  * Basic implementation of {@link HttpRequest}.
+ * <p>
+ * The name of a standard method is stored as the interned name of its {@link HttpMethod}, which can be
+ * obtained via {@link #getStandardMethod()}. Requests created from an existing {@link URI} share it
+ * instead of parsing it again.
  *
  * @since 0.1
  */
 public class BasicHttpRequest extends AbstractHttpMessage implements HttpRequest {
     private final String method;
+    private final HttpMethod standardMethod;
     private final URI uri;
     private final ProtocolVersion ver;
+    private CrawlMetadata metadata;
 
     /**
      * Creates an instance of this class using the given request method
@@ -46,8 +53,31 @@ public class BasicHttpRequest extends AbstractHttpMessage implements HttpRequest
      * @see HttpVersion
      */
     public BasicHttpRequest(final String method, final String uri, final ProtocolVersion ver) {
-        this.method = method.trim().toUpperCase();
-        this.uri = URI.create(uri);
+        this(method, URI.create(uri), ver);
+    }
+
+    /**
+     * Creates an instance of this class using the given standard request method and URI.
+     *
+     * @param method request method.
+     * @param uri request URI, which is shared rather than copied.
+     */
+    public BasicHttpRequest(final HttpMethod method, final URI uri) {
+        this(method.name(), uri, HttpVersion.HTTP_1_1);
+    }
+
+    /**
+     * Creates an instance of this class using the given request method, URI
+     * and the HTTP protocol version.
+     *
+     * @param method request method.
+     * @param uri request URI, which is shared rather than copied.
+     * @param ver HTTP protocol version.
+     */
+    public BasicHttpRequest(final String method, final URI uri, final ProtocolVersion ver) {
+        this.standardMethod = HttpMethod.lookup(method);
+        this.method = standardMethod != null ? standardMethod.name() : method.trim().toUpperCase();
+        this.uri = uri;
         this.ver = ver;
     }
 
@@ -56,6 +86,15 @@ public class BasicHttpRequest extends AbstractHttpMessage implements HttpRequest
         return method;
     }
 
+    /**
+     * Returns the standard method of this request; returns {@code null} if it uses an extension method.
+     *
+     * @return the standard method of this request, or {@code null}.
+     */
+    public HttpMethod getStandardMethod() {
+        return standardMethod;
+    }
+
     @Override
     public URI getRequestTarget() {
         return uri;
@@ -71,8 +110,18 @@ public class BasicHttpRequest extends AbstractHttpMessage implements HttpRequest
         return ver;
     }
 
+    @Override
+    public CrawlMetadata getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public void setMetadata(CrawlMetadata metadata) {
+        this.metadata = metadata;
+    }
+
     @Override
     public String toString() {
-        return getMethod().trim().toUpperCase() + ' ' + getRequestTarget().toASCIIString();
+        return method + ' ' + uri.toASCIIString();
     }
 }
@@ -4,18 +4,36 @@ import com.mrdai.crawly.network.Request;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpVersion;
 import org.apache.http.ProtocolVersion;
+import org.apache.http.concurrent.Cancellable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Basic implementation of {@link HttpResponse}.
+ * <p>
+ * Closing the response closes its entity if the entity is {@link Closeable}, e.g. a {@link BufferedEntity}.
+ * Otherwise, it drains what remains of a streamed entity, up to {@code 16} KiB, which releases the underlying
+ * connection, if any, back to its pool; if more remains, the connection is aborted via the abort handle of the
+ * response instead, so that an unread body of any length is never downloaded just to reuse its connection.
  *
  * @since 0.1
  */
-public class BasicHttpResponse extends AbstractHttpMessage implements HttpResponse {
+public class BasicHttpResponse extends AbstractHttpMessage implements HttpResponse, Closeable {
+    private static final long MAX_DRAINED_BODY = 16 * 1024;
+
     private final Request request;
     private ProtocolVersion ver;
     private int statusCode;
     private String reason;
     private HttpEntity entity;
+    private TransferStats transferStats;
+    private List<URI> redirectChain = Collections.emptyList();
+    private Cancellable abortHandle;
 
     /**
      * Creates a response from elements of a status line and its corresponding request.
@@ -38,6 +56,21 @@ public class BasicHttpResponse extends AbstractHttpMessage implements HttpRespon
         this.reason = reason;
     }
 
+    /**
+     * Creates a response adapted from the given Apache HttpClient response, whose headers are used directly
+     * rather than copied. The entity of the given response is not adopted.
+     *
+     * @param request the corresponding request.
+     * @param response the given Apache HttpClient response.
+     */
+    public BasicHttpResponse(Request request, org.apache.http.HttpResponse response) {
+        super(response);
+        this.request = request;
+        this.ver = response.getStatusLine().getProtocolVersion();
+        this.statusCode = response.getStatusLine().getStatusCode();
+        this.reason = response.getStatusLine().getReasonPhrase();
+    }
+
     @Override
     public ProtocolVersion getProtocolVersion() {
         return ver;
@@ -63,11 +96,97 @@ public class BasicHttpResponse extends AbstractHttpMessage implements HttpRespon
         this.entity = entity;
     }
 
+    /**
+     * Returns the byte counts of the entity of this response; returns {@code null} if they are not tracked.
+     *
+     * @return the byte counts of the entity, or {@code null}.
+     */
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    /**
+     * Sets the byte counts of the entity of this response.
+     *
+     * @param transferStats the byte counts of the entity.
+     */
+    public void setTransferStats(TransferStats transferStats) {
+        this.transferStats = transferStats;
+    }
+
+    /**
+     * Returns the URLs visited to obtain this response, starting with the requested URL and ending with the URL
+     * this response was actually sent for; returns an empty list if the request was not redirected.
+     *
+     * @return the redirect chain of this response.
+     */
+    public List<URI> getRedirectChain() {
+        return redirectChain;
+    }
+
+    /**
+     * Sets the URLs visited to obtain this response.
+     *
+     * @param redirectChain the redirect chain of this response, or an empty list if there was no redirect.
+     */
+    public void setRedirectChain(List<URI> redirectChain) {
+        this.redirectChain = Collections.unmodifiableList(redirectChain);
+    }
+
+    /**
+     * Sets the handle which aborts the connection of this response, used by {@link #close()} when too much of
+     * the entity remains to be drained. Without a handle, the remaining entity is drained whatever its length.
+     *
+     * @param abortHandle the handle aborting the connection of this response, or {@code null}.
+     */
+    public void setAbortHandle(Cancellable abortHandle) {
+        this.abortHandle = abortHandle;
+    }
+
     @Override
     public Request getRequest() {
         return request;
     }
 
+    @Override
+    public void close() throws IOException {
+        if (entity instanceof Closeable) {
+            ((Closeable) entity).close();
+            return;
+        }
+        if (entity == null || !entity.isStreaming())
+            return;
+        InputStream in = entity.getContent();
+        if (in == null)
+            return;
+        if (abortHandle == null) {
+            in.close();
+            return;
+        }
+
+        boolean drained = false;
+        try {
+            byte[] buffer = new byte[4096];
+            long remaining = MAX_DRAINED_BODY;
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                remaining -= n;
+                if (remaining < 0)
+                    break;
+            }
+            drained = remaining >= 0;
+        } catch (IOException e) {
+            // Aborted below
+        }
+        if (!drained)
+            abortHandle.cancel();
+        try {
+            in.close();
+        } catch (IOException e) {
+            if (drained)
+                throw e;
+        }
+    }
+
     @Override
     public String toString() {
         return ver.toString() + ' ' + statusCode + ' ' + reason;
@@ -0,0 +1,289 @@
+package com.mrdai.crawly.network.http;
+
+import com.mrdai.crawly.util.ByteBufferInputStream;
+import com.mrdai.crawly.util.ByteBufferPool;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link HttpEntity} whose content has been read completely into buffers taken from a {@link ByteBufferPool},
+ * so that the connection it was read from can be released before the entity is processed.
+ * <p>
+ * The content is capped at a maximum size when it is read; {@link #isTruncated()} tells whether the original
+ * content was longer. Content longer than the given memory threshold is spilled to a temporary file instead,
+ * so that large bodies do not stay in the heap while they wait to be processed; {@link #isSpilled()} tells
+ * whether this happened. Either way, the content can be read any number of times, as an {@link InputStream} via
+ * {@link #getContent()} or as {@link ByteBuffer}s via {@link #getBuffers()}. The buffers are views of the pooled
+ * buffers, or memory-mapped regions of the temporary file, thus neither way copies the content into the heap.
+ * <p>
+ * Closing the entity returns its buffers to the pool and deletes its temporary file, after which its content
+ * can no longer be read. This class is not thread-safe.
+ */
+public class BufferedEntity extends AbstractHttpEntity implements Closeable {
+    private final ByteBufferPool pool;
+    private final ByteBuffer[] buffers;
+    private final Path file;
+    private final long length;
+    private final boolean truncated;
+    private boolean closed;
+
+    private BufferedEntity(ByteBufferPool pool, ByteBuffer[] buffers, Path file, long length, boolean truncated) {
+        this.pool = pool;
+        this.buffers = buffers;
+        this.file = file;
+        this.length = length;
+        this.truncated = truncated;
+    }
+
+    /**
+     * Reads the content of the given entity, up to the given maximum size, into buffers taken from the given pool.
+     * The content stream of the given entity is left open, and is not read beyond the maximum size plus one byte.
+     *
+     * @param source the given entity.
+     * @param pool the pool to take buffers from.
+     * @param maxSize the maximum number of bytes to read.
+     * @return a {@code BufferedEntity} holding the content of the given entity.
+     * @throws IOException if an I/O exception occurs when reading the given entity.
+     */
+    public static BufferedEntity read(HttpEntity source, ByteBufferPool pool, long maxSize) throws IOException {
+        return read(source, pool, maxSize, maxSize, null);
+    }
+
+    /**
+     * Reads the content of the given entity, up to the given maximum size, into buffers taken from the given pool.
+     * If the content is longer than the given memory threshold, it is spilled to a temporary file created in the
+     * given directory. The content stream of the given entity is left open, and is not read beyond the maximum
+     * size plus one byte.
+     *
+     * @param source the given entity.
+     * @param pool the pool to take buffers from.
+     * @param maxSize the maximum number of bytes to read.
+     * @param memoryThreshold the maximum number of bytes to hold in memory.
+     * @param spillDirectory the directory of the temporary file, or {@code null} for the default
+     *                       temporary-file directory.
+     * @return a {@code BufferedEntity} holding the content of the given entity.
+     * @throws IOException if an I/O exception occurs when reading the given entity or writing the temporary file.
+     */
+    public static BufferedEntity read(HttpEntity source, ByteBufferPool pool, long maxSize,
+                                      long memoryThreshold, Path spillDirectory) throws IOException {
+        long memoryLimit = Math.min(maxSize, memoryThreshold);
+        List<ByteBuffer> buffers = new ArrayList<>();
+        long length = 0;
+        boolean truncated = false;
+        BufferedEntity entity = null;
+        try {
+            InputStream in = source.getContent();
+            ByteBuffer buffer = null;
+            while (true) {
+                if (length >= memoryLimit) {
+                    int next = in.read();
+                    if (next >= 0 && length < maxSize)
+                        entity = spill(in, pool, buffers, length, next, maxSize, spillDirectory);
+                    else
+                        truncated = next >= 0;
+                    break;
+                }
+                if (buffer == null || !buffer.hasRemaining()) {
+                    buffer = pool.acquire();
+                    buffers.add(buffer);
+                }
+                int toRead = (int) Math.min(buffer.remaining(), memoryLimit - length);
+                int n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), toRead);
+                if (n < 0)
+                    break;
+                buffer.position(buffer.position() + n);
+                length += n;
+            }
+        } catch (IOException | RuntimeException e) {
+            for (ByteBuffer buffer : buffers)
+                pool.release(buffer);
+            throw e;
+        }
+
+        if (entity == null) {
+            for (ByteBuffer buffer : buffers)
+                buffer.flip();
+            entity = new BufferedEntity(pool, buffers.toArray(new ByteBuffer[buffers.size()]), null,
+                                        length, truncated);
+        }
+        entity.setContentType(source.getContentType());
+        entity.setContentEncoding(source.getContentEncoding());
+        entity.setChunked(source.isChunked());
+        return entity;
+    }
+
+    /**
+     * Writes the given buffers, the given next byte and the rest of the given stream, up to the given maximum size,
+     * to a temporary file. Every given buffer is released to the pool, whether or not this method succeeds.
+     */
+    private static BufferedEntity spill(InputStream in, ByteBufferPool pool, List<ByteBuffer> buffers, long length,
+                                        int next, long maxSize, Path spillDirectory) throws IOException {
+        Path file = spillDirectory == null ? Files.createTempFile("crawly-", ".body")
+                                           : Files.createTempFile(spillDirectory, "crawly-", ".body");
+        ByteBuffer buffer = pool.acquire();
+        boolean truncated = false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for (ByteBuffer spilled : buffers) {
+                spilled.flip();
+                writeFully(channel, spilled);
+            }
+
+            buffer.put((byte) next);
+            length++;
+            while (true) {
+                if (length >= maxSize) {
+                    truncated = in.read() >= 0;
+                    break;
+                }
+                int toRead = (int) Math.min(buffer.remaining(), maxSize - length);
+                int n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), toRead);
+                if (n < 0)
+                    break;
+                buffer.position(buffer.position() + n);
+                length += n;
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    writeFully(channel, buffer);
+                    buffer.clear();
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        } finally {
+            pool.release(buffer);
+            for (ByteBuffer spilled : buffers)
+                pool.release(spilled);
+            buffers.clear();
+        }
+        return new BufferedEntity(pool, null, file, length, truncated);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Returns if the content of the original entity was longer than the maximum size and has been truncated.
+     *
+     * @return {@code true} if the content has been truncated; {@code false} otherwise.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Returns if the content was longer than the memory threshold and has been spilled to a temporary file.
+     *
+     * @return {@code true} if the content has been spilled to a temporary file; {@code false} otherwise.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Returns read-only views of the buffers holding the content, in order. If the content has been spilled
+     * to a temporary file, the file is memory-mapped in regions of at most {@link Integer#MAX_VALUE} bytes.
+     * The views share the content of the entity, thus they must not be used after the entity is closed.
+     *
+     * @return read-only views of the buffers holding the content.
+     * @throws IOException if the temporary file cannot be mapped.
+     * @throws IllegalStateException if the entity has been closed.
+     */
+    public ByteBuffer[] getBuffers() throws IOException {
+        assertOpen();
+        if (file != null)
+            return map();
+        ByteBuffer[] views = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++)
+            views[i] = buffers[i].asReadOnlyBuffer();
+        return views;
+    }
+
+    private ByteBuffer[] map() throws IOException {
+        int regions = (int) ((length + Integer.MAX_VALUE - 1) / Integer.MAX_VALUE);
+        ByteBuffer[] views = new ByteBuffer[regions];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < regions; i++) {
+                long position = (long) i * Integer.MAX_VALUE;
+                views[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                       Math.min(Integer.MAX_VALUE, length - position));
+            }
+        }
+        return views;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        assertOpen();
+        if (file != null)
+            return new BufferedInputStream(Files.newInputStream(file));
+        return new ByteBufferInputStream(getBuffers());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        assertOpen();
+        if (file != null) {
+            Files.copy(file, out);
+            return;
+        }
+        for (ByteBuffer buffer : buffers)
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Returns the buffers of this entity to their pool, or deletes its temporary file.
+     * Calling this method more than once has no effect.
+     *
+     * @throws IOException if the temporary file cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (file != null) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        for (ByteBuffer buffer : buffers)
+            pool.release(buffer);
+    }
+
+    private void assertOpen() {
+        if (closed)
+            throw new IllegalStateException("The entity has been closed and its buffers have been released.");
+    }
+}
@@ -0,0 +1,178 @@
+package com.mrdai.crawly.network.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.brotli.dec.BrotliInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An {@link HttpEntity} which decodes the content of a {@code gzip}, {@code deflate} or {@code br} (Brotli)
+ * encoded entity as it is read, and counts both the wire bytes and the decoded bytes in a {@link TransferStats}.
+ * <p>
+ * The content is decoded as a stream, with no buffering beyond the internal buffers of the decoders.
+ * Entities with an unsupported encoding are passed through undecoded, keeping their {@code Content-Encoding};
+ * entities without encoding are passed through as well, in which case both counts are the same.
+ * <p>
+ * Like the wrapped entity, the content of this entity can only be read once.
+ *
+ * @see #ACCEPT_ENCODING
+ */
+public class DecodingEntity extends HttpEntityWrapper {
+    /** The value of the {@code Accept-Encoding} header listing every encoding this entity can decode. */
+    public static final String ACCEPT_ENCODING = "gzip, deflate, br";
+
+    private final String encoding;
+    private final TransferStats stats;
+    private InputStream content;
+
+    /**
+     * Creates a {@code DecodingEntity} decoding the given entity according to its {@code Content-Encoding}.
+     *
+     * @param wrapped the given entity.
+     * @param stats the {@code TransferStats} counting the bytes read.
+     */
+    public DecodingEntity(HttpEntity wrapped, TransferStats stats) {
+        super(wrapped);
+        this.encoding = encodingOf(wrapped);
+        this.stats = stats;
+    }
+
+    private static String encodingOf(HttpEntity entity) {
+        Header header = entity.getContentEncoding();
+        if (header == null)
+            return null;
+        String encoding = header.getValue().trim().toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                return "gzip";
+            case "deflate":
+            case "br":
+                return encoding;
+            case "":
+            case "identity":
+                return null;
+            default:
+                return encoding;
+        }
+    }
+
+    /**
+     * Returns if the content of the wrapped entity is decoded by this entity.
+     *
+     * @return {@code true} if the content is decoded; {@code false} if it is passed through.
+     */
+    public boolean isDecoding() {
+        return "gzip".equals(encoding) || "deflate".equals(encoding) || "br".equals(encoding);
+    }
+
+    /** Returns the {@code TransferStats} counting the bytes read from this entity. */
+    public TransferStats getTransferStats() {
+        return stats;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        if (content != null)
+            return content;
+        InputStream wire = new CountingInputStream(wrappedEntity.getContent(), stats, true);
+        if (!isDecoding()) {
+            content = new CountingInputStream(wire, stats, false);
+            return content;
+        }
+
+        InputStream decoded;
+        switch (encoding) {
+            case "gzip":
+                decoded = new GZIPInputStream(wire);
+                break;
+            case "deflate":
+                decoded = new DeflateInputStream(wire);
+                break;
+            default:
+                decoded = new BrotliInputStream(wire);
+        }
+        content = new CountingInputStream(decoded, stats, false);
+        return content;
+    }
+
+    @Override
+    public long getContentLength() {
+        return isDecoding() ? -1 : wrappedEntity.getContentLength();
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return isDecoding() ? null : wrappedEntity.getContentEncoding();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = getContent()) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                out.write(buffer, 0, n);
+        }
+    }
+
+    /** {@code InputStream} adding the number of bytes read to either count of a {@code TransferStats}. */
+    private static class CountingInputStream extends FilterInputStream {
+        private final TransferStats stats;
+        private final boolean wire;
+
+        CountingInputStream(InputStream in, TransferStats stats, boolean wire) {
+            super(in);
+            this.stats = stats;
+            this.wire = wire;
+        }
+
+        private void count(long n) {
+            if (n <= 0)
+                return;
+            if (wire)
+                stats.addWireBytes(n);
+            else
+                stats.addDecodedBytes(n);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0)
+                count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            count(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.mrdai.crawly.network.http;
+
+import java.nio.file.Path;
+
+/**
+ * A {@code GET} request whose response body is written straight to a local file, instead of being handed
+ * to the page processors as a stream, which suits file-mirroring crawls of large binary resources.
+ * <p>
+ * If resuming is enabled and the file already exists, only the missing part is requested with a {@code Range}
+ * header and appended to the file; if the server ignores the range, the file is rewritten. The checksum of the
+ * whole file is computed on the fly with the given algorithm. Bodies are requested unencoded, so that ranges
+ * refer to the bytes of the file. On default, resuming is disabled and {@code SHA-256} checksums are computed.
+ *
+ * @see com.mrdai.crawly.downloader.HttpDownloader
+ * @see FileResponse
+ */
+public class FileDownloadRequest extends BasicHttpRequest {
+    private final Path file;
+    private boolean resume;
+    private String checksumAlgorithm = "SHA-256";
+
+    /**
+     * Creates a {@code FileDownloadRequest} downloading the given URI to the given file.
+     *
+     * @param uri the given URI.
+     * @param file the local file to write the body to.
+     */
+    public FileDownloadRequest(String uri, Path file) {
+        super(HttpMethods.GET, uri);
+        this.file = file;
+    }
+
+    /** Returns the local file to write the body to. */
+    public Path getFile() {
+        return file;
+    }
+
+    /** Returns if an existing partial file is resumed. */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Sets if an existing partial file is resumed.
+     *
+     * @param resume {@code true} to resume an existing partial file; {@code false} to rewrite it.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /** Returns the name of the checksum algorithm, or {@code null} if no checksum is computed. */
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /**
+     * Sets the name of the {@link java.security.MessageDigest MessageDigest} algorithm of the checksum.
+     *
+     * @param checksumAlgorithm the name of the algorithm, or {@code null} to skip checksums.
+     */
+    public void setChecksumAlgorithm(String checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+}
@@ -0,0 +1,47 @@
+package com.mrdai.crawly.network.http;
+
+import com.mrdai.crawly.network.DownloadedFile;
+import com.mrdai.crawly.network.Request;
+import org.apache.http.ProtocolVersion;
+
+/**
+ * The response to a {@link FileDownloadRequest} whose body has been written to the local file. The entity of
+ * the response, if any, reads the whole local file.
+ */
+public class FileResponse extends BasicHttpResponse {
+    private final DownloadedFile downloadedFile;
+
+    /**
+     * Creates a {@code FileResponse} from elements of a status line, its corresponding request and the outcome
+     * of the transfer.
+     *
+     * @param request the corresponding request.
+     * @param ver the protocol version of the response.
+     * @param code the status code of the response.
+     * @param reason the reason phrase to the status code, or {@code null}.
+     * @param downloadedFile the outcome of the transfer.
+     */
+    public FileResponse(Request request, ProtocolVersion ver, int code, String reason,
+                        DownloadedFile downloadedFile) {
+        super(request, ver, code, reason);
+        this.downloadedFile = downloadedFile;
+    }
+
+    /**
+     * Creates a {@code FileResponse} adapted from the given Apache HttpClient response, whose headers are used
+     * directly rather than copied, and the outcome of the transfer.
+     *
+     * @param request the corresponding request.
+     * @param response the given Apache HttpClient response.
+     * @param downloadedFile the outcome of the transfer.
+     */
+    public FileResponse(Request request, org.apache.http.HttpResponse response, DownloadedFile downloadedFile) {
+        super(request, response);
+        this.downloadedFile = downloadedFile;
+    }
+
+    /** Returns the outcome of the transfer. */
+    public DownloadedFile getDownloadedFile() {
+        return downloadedFile;
+    }
+}
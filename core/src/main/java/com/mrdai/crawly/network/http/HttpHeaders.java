@@ -25,10 +25,16 @@ public final class HttpHeaders {
     public static final String FROM = "From";
     /** Allows a 304 Not Modified to be returned if content is unchanged */
     public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    /** Allows a 304 Not Modified to be returned if the entity tag of the content is unchanged */
+    public static final String IF_NONE_MATCH = "If-None-Match";
     /** If the entity is unchanged, send me the part(s) that I am missing; otherwise, send me the entire new entity */
     public static final String IF_RANGE = "If-Range";
     /** Only send the response if the entity has not been modified since a specific time. */
     public static final String IF_UNMODIFIED_SINCE = "If-Unmodified-Since";
+    /** Request only part of an entity. Bytes are numbered from 0. */
+    public static final String RANGE = "Range";
+    /** The user agent string of the user agent */
+    public static final String USER_AGENT = "User-Agent";
     /** Informs the server of proxies through which the request was sent. */
     public static final String VIA = "Via";
     /** A general warning about possible problems with the entity body. */
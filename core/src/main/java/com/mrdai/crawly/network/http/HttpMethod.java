@@ -0,0 +1,49 @@
+package com.mrdai.crawly.network.http;
+
+import java.util.Locale;
+
+/**
+ * The standard HTTP request methods, whose names are the interned method strings of {@link HttpMethods}.
+ * Looking a method up with {@link #lookup(String)} lets the name of a method be compared by identity, and
+ * lets code switch over methods instead of comparing strings.
+ */
+public enum HttpMethod {
+    GET, HEAD, POST, PUT, DELETE, CONNECT, OPTIONS, TRACE, PATCH;
+
+    /**
+     * Returns the standard method with the given name, ignoring case and surrounding whitespace;
+     * returns {@code null} if the given name is not a standard method, i.e. an extension method.
+     *
+     * @param method the name of the method.
+     * @return the standard method with the given name, or {@code null}.
+     */
+    public static HttpMethod lookup(String method) {
+        HttpMethod result = exact(method);
+        return result != null ? result : exact(method.trim().toUpperCase(Locale.ROOT));
+    }
+
+    private static HttpMethod exact(String method) {
+        switch (method) {
+            case "GET":
+                return GET;
+            case "HEAD":
+                return HEAD;
+            case "POST":
+                return POST;
+            case "PUT":
+                return PUT;
+            case "DELETE":
+                return DELETE;
+            case "CONNECT":
+                return CONNECT;
+            case "OPTIONS":
+                return OPTIONS;
+            case "TRACE":
+                return TRACE;
+            case "PATCH":
+                return PATCH;
+            default:
+                return null;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.mrdai.crawly.network.http;
 
 /**
  * Methods of HTTP request
+ *
+ * @see HttpMethod
  */
 public final class HttpMethods {
     public static String GET = "GET";
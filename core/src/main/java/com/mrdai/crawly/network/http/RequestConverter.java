@@ -10,6 +10,9 @@ import java.net.URI;
 /**
  * Utility class for converting the request classes of this framework to those of
  * Apache HttpClient.
+ * <p>
+ * The conversion shares the {@link URI} and the header objects of the given request, and resolves
+ * its method with a single lookup of {@link HttpMethod}.
  */
 public final class RequestConverter {
     private static final Logger LOG = LoggerFactory.getLogger(RequestConverter.class);
@@ -22,57 +25,68 @@ public final class RequestConverter {
      * @return the converted result.
      */
     public static HttpUriRequest toApache(HttpRequest request) {
-        LOG.debug("Trying to convert " + request);
         HttpUriRequest result;
 
         String method = request.getMethod();
-        String uriText = request.getRequestTarget().toASCIIString();
-        if (method.trim().equalsIgnoreCase(HttpMethods.GET)) {
-            result = new HttpGet(uriText);
-        } else if (method.trim().equalsIgnoreCase(HttpMethods.POST)) {
-            result = new HttpPost(uriText);
-        } else if (method.trim().equalsIgnoreCase(HttpMethods.HEAD)) {
-            result = new HttpHead(uriText);
-        } else if (method.trim().equalsIgnoreCase(HttpMethods.PUT)) {
-            result = new HttpPut(uriText);
-        } else if (method.trim().equalsIgnoreCase(HttpMethods.DELETE)) {
-            result = new HttpDelete(uriText);
-        } else if (method.trim().equalsIgnoreCase(HttpMethods.OPTIONS)) {
-            result = new HttpOptions(uriText);
-        } else if (method.trim().equalsIgnoreCase(HttpMethods.TRACE)) {
-            result = new HttpTrace(uriText);
-        } else if (method.trim().equalsIgnoreCase(HttpMethods.PATCH)) {
-            result = new HttpPatch(uriText);
+        URI uri = request.getRequestTarget();
+        HttpMethod standardMethod = request instanceof BasicHttpRequest
+                                    ? ((BasicHttpRequest) request).getStandardMethod() : HttpMethod.lookup(method);
+        boolean enclosing = request instanceof HttpEntityEnclosingRequest;
+        if (standardMethod == null) {
+            LOG.debug("The given method `{}` is not supported. Converting it to generic request class.", method);
+            result = enclosing ? new BasicEntityEnclosingRequestWrapper(method, uri)
+                               : new BasicRequestWrapper(method, uri);
         } else {
-            LOG.debug("The given method `{}` is not supported. Converting it to generic request class.");
-            if (request instanceof HttpEntityEnclosingRequest)
-                result = new BasicEntityEnclosingRequestWrapper(method, uriText);
-            else
-                result = new BasicRequestWrapper(method, uriText);
+            switch (standardMethod) {
+                case GET:
+                    result = new HttpGet(uri);
+                    break;
+                case POST:
+                    result = new HttpPost(uri);
+                    break;
+                case HEAD:
+                    result = new HttpHead(uri);
+                    break;
+                case PUT:
+                    result = new HttpPut(uri);
+                    break;
+                case DELETE:
+                    result = new HttpDelete(uri);
+                    break;
+                case OPTIONS:
+                    result = new HttpOptions(uri);
+                    break;
+                case TRACE:
+                    result = new HttpTrace(uri);
+                    break;
+                case PATCH:
+                    result = new HttpPatch(uri);
+                    break;
+                default:
+                    result = enclosing ? new BasicEntityEnclosingRequestWrapper(method, uri)
+                                       : new BasicRequestWrapper(method, uri);
+            }
         }
 
-        // Copy headers
-        for (Header header : request.getAllHeaders())
-            result.setHeader(header);
+        // Share the header objects, copying only the array holding them
+        result.setHeaders(request.getAllHeaders());
 
         // Copy Entity
-        if (result instanceof org.apache.http.HttpEntityEnclosingRequest
-            && request instanceof HttpEntityEnclosingRequest) {
+        if (enclosing && result instanceof org.apache.http.HttpEntityEnclosingRequest) {
             ((org.apache.http.HttpEntityEnclosingRequest) result)
                 .setEntity(((HttpEntityEnclosingRequest) request).getEntity());
         }
 
-        LOG.debug("{} -> {}", request, result);
         return result;
     }
 
     private static class BasicRequestWrapper extends HttpRequestBase {
         private final String method;
 
-        BasicRequestWrapper(String method, final String uri) {
+        BasicRequestWrapper(String method, final URI uri) {
             super();
             this.method = method;
-            setURI(URI.create(uri));
+            setURI(uri);
         }
 
         @Override
@@ -84,10 +98,10 @@ public final class RequestConverter {
     private static class BasicEntityEnclosingRequestWrapper extends HttpEntityEnclosingRequestBase {
         private final String method;
 
-        BasicEntityEnclosingRequestWrapper(String method, final String uri) {
+        BasicEntityEnclosingRequestWrapper(String method, final URI uri) {
             super();
             this.method = method;
-            setURI(URI.create(uri));
+            setURI(uri);
         }
 
         @Override
@@ -0,0 +1,72 @@
+package com.mrdai.crawly.network.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte counts of transferred content: the wire bytes, i.e. the bytes of the body as sent by the server,
+ * possibly compressed, and the decoded bytes, i.e. the bytes of the body seen by page processors.
+ * <p>
+ * The counts grow as the content is read. A {@code TransferStats} may have a parent, e.g. the totals of a
+ * {@link com.mrdai.crawly.downloader.HttpDownloader HttpDownloader}, to which every count is also added.
+ * This class is thread-safe.
+ *
+ * @see DecodingEntity
+ */
+public class TransferStats {
+    private final TransferStats parent;
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    /**
+     * Creates a {@code TransferStats} without parent.
+     */
+    public TransferStats() {
+        this(null);
+    }
+
+    /**
+     * Creates a {@code TransferStats} whose counts are also added to the given parent.
+     *
+     * @param parent the parent {@code TransferStats}, or {@code null}.
+     */
+    public TransferStats(TransferStats parent) {
+        this.parent = parent;
+    }
+
+    void addWireBytes(long n) {
+        wireBytes.addAndGet(n);
+        if (parent != null)
+            parent.addWireBytes(n);
+    }
+
+    void addDecodedBytes(long n) {
+        decodedBytes.addAndGet(n);
+        if (parent != null)
+            parent.addDecodedBytes(n);
+    }
+
+    /** Returns the number of bytes read off the wire so far. */
+    public long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    /** Returns the number of decoded bytes read so far. */
+    public long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    /**
+     * Returns the number of decoded bytes per wire byte so far; returns {@code 1} if nothing has been read.
+     *
+     * @return the compression ratio of the content read so far.
+     */
+    public double getCompressionRatio() {
+        long wire = wireBytes.get();
+        return wire == 0 ? 1 : (double) decodedBytes.get() / wire;
+    }
+
+    @Override
+    public String toString() {
+        return wireBytes.get() + " wire bytes, " + decodedBytes.get() + " decoded bytes";
+    }
+}
@@ -0,0 +1,30 @@
+package com.mrdai.crawly.processor;
+
+import java.util.List;
+
+/**
+ * Optional interface of a {@link PageProcessor} declaring which responses it may process, so that downloaders
+ * can abort the transfer of bodies no processor wants before reading them.
+ * <p>
+ * The declarations must be consistent with {@link PageProcessor#supports(com.mrdai.crawly.network.Response)}:
+ * a processor must not support a response whose content type or length it does not accept.
+ *
+ * @see com.mrdai.crawly.downloader.ContentPolicy
+ */
+public interface ContentRequirements {
+    /**
+     * Returns the media types of the responses the processor accepts, such as {@code text/html},
+     * {@code text/*} or {@code *}{@code /*}. Responses without {@code Content-Type} are always accepted.
+     *
+     * @return the accepted media types.
+     */
+    List<String> getAcceptedContentTypes();
+
+    /**
+     * Returns the maximum {@code Content-Length} of the responses the processor accepts;
+     * returns a negative number if there is no limit.
+     *
+     * @return the maximum accepted {@code Content-Length}, or a negative number.
+     */
+    long getMaxContentLength();
+}
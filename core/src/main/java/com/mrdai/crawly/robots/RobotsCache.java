@@ -0,0 +1,200 @@
+package com.mrdai.crawly.robots;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mrdai.crawly.downloader.HttpDownloader;
+import com.mrdai.crawly.network.Response;
+import com.mrdai.crawly.network.http.BasicHttpRequest;
+import com.mrdai.crawly.network.http.HttpHeaders;
+import com.mrdai.crawly.network.http.HttpMethods;
+import com.mrdai.crawly.network.http.HttpResponse;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of {@link RobotsRules}, which fetches the {@code robots.txt} file of each origin at most once
+ * per time-to-live through the given {@link HttpDownloader}.
+ * <p>
+ * The cache holds a bounded number of origins and evicts the least recently used ones when it is full.
+ * Concurrent lookups of the same origin share a single fetch.
+ * <p>
+ * Following RFC 9309, a missing {@code robots.txt} file (any {@code 4xx} status) allows every path,
+ * while a server error or a network failure disallows every path. Failures are cached for a shorter
+ * time-to-live so that the origin is retried soon.
+ * <p>
+ * On default, the cache holds {@code 10000} origins, successful fetches live for {@code 24} hours and
+ * failures live for {@code 1} hour. At most {@code 500} KiB of each {@code robots.txt} file are parsed.
+ *
+ * @see RobotsRules
+ * @see com.mrdai.crawly.scheduler.RobotsScheduler
+ */
+public class RobotsCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RobotsCache.class);
+
+    private static final int MAX_ROBOTS_SIZE = 500 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final HttpDownloader downloader;
+    private final String userAgent;
+    private final long ttl;
+    private final long failureTtl;
+    private final Cache<String, Entry> cache;
+
+    /**
+     * Creates a {@code RobotsCache} which fetches {@code robots.txt} files through the given downloader
+     * and matches their rules against the given user agent.
+     *
+     * @param downloader the given {@code HttpDownloader}.
+     * @param userAgent the product token of the crawler, e.g. {@code Crawly}.
+     */
+    public RobotsCache(HttpDownloader downloader, String userAgent) {
+        this(downloader, userAgent, 10000, TimeUnit.HOURS.toMillis(24), TimeUnit.HOURS.toMillis(1));
+    }
+
+    /**
+     * Creates a {@code RobotsCache} which fetches {@code robots.txt} files through the given downloader
+     * and matches their rules against the given user agent.
+     *
+     * @param downloader the given {@code HttpDownloader}.
+     * @param userAgent the product token of the crawler, e.g. {@code Crawly}.
+     * @param maxOrigins the maximum number of origins held in the cache.
+     * @param ttl the time-to-live of successfully fetched rules, in milliseconds.
+     * @param failureTtl the time-to-live of rules derived from a failed fetch, in milliseconds.
+     */
+    public RobotsCache(HttpDownloader downloader, String userAgent, int maxOrigins, long ttl, long failureTtl) {
+        this.downloader = downloader;
+        this.userAgent = userAgent;
+        this.ttl = ttl;
+        this.failureTtl = failureTtl;
+        cache = CacheBuilder.newBuilder().maximumSize(maxOrigins).build();
+    }
+
+    /**
+     * Returns the rules that apply to the given URI, fetching the {@code robots.txt} file of its origin
+     * if it is not cached or has expired.
+     *
+     * @param uri the given URI, which must be absolute.
+     * @return the rules that apply to the given URI.
+     */
+    public RobotsRules get(URI uri) {
+        final String origin = originOf(uri);
+        try {
+            Entry entry = cache.get(origin, new Callable<Entry>() {
+                @Override
+                public Entry call() {
+                    return fetch(origin);
+                }
+            });
+            if (entry.expiresAt < System.currentTimeMillis()) {
+                cache.invalidate(origin);
+                return get(uri);
+            }
+            return entry.rules;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load robots.txt of " + origin, e.getCause());
+        }
+    }
+
+    /**
+     * Returns the cached rules that apply to the given URI without fetching them;
+     * returns {@code null} if they are not cached or have expired.
+     *
+     * @param uri the given URI, which must be absolute.
+     * @return the cached rules that apply to the given URI, or {@code null}.
+     */
+    public RobotsRules getIfPresent(URI uri) {
+        Entry entry = cache.getIfPresent(originOf(uri));
+        return entry == null || entry.expiresAt < System.currentTimeMillis() ? null : entry.rules;
+    }
+
+    /**
+     * Returns the rules applied to an origin whose {@code robots.txt} file could not be fetched, which disallow
+     * every path.
+     *
+     * @return the rules applied upon failures.
+     */
+    public RobotsRules getFailureRules() {
+        return RobotsRules.DISALLOW_ALL;
+    }
+
+    /**
+     * Returns the origin of the given URI, i.e. its lower-case scheme, host and port.
+     *
+     * @param uri the given URI, which must be absolute.
+     * @return the origin of the given URI.
+     */
+    public static String originOf(URI uri) {
+        String scheme = uri.getScheme().toLowerCase();
+        String origin = scheme + "://" + uri.getHost().toLowerCase();
+        return uri.getPort() < 0 ? origin : origin + ':' + uri.getPort();
+    }
+
+    private Entry fetch(String origin) {
+        String robotsUrl = origin + "/robots.txt";
+        LOG.debug("Fetching {}", robotsUrl);
+        BasicHttpRequest request = new BasicHttpRequest(HttpMethods.GET, robotsUrl);
+        request.setHeader(HttpHeaders.USER_AGENT, userAgent);
+
+        long now = System.currentTimeMillis();
+        try {
+            Response response = downloader.download(request);
+            HttpResponse hResponse = (HttpResponse) response;
+            int status = hResponse.getStatusCode();
+            HttpEntity entity = hResponse.getEntity();
+            try {
+                if (status >= 200 && status < 300) {
+                    String content = entity == null ? "" : read(entity);
+                    return new Entry(RobotsRules.parse(content, userAgent), now + ttl);
+                }
+                if (status >= 400 && status < 500) {
+                    LOG.debug("{} returned {}, allowing every path.", robotsUrl, status);
+                    return new Entry(RobotsRules.ALLOW_ALL, now + ttl);
+                }
+                LOG.warn("{} returned {}, disallowing every path for now.", robotsUrl, status);
+                return new Entry(getFailureRules(), now + failureTtl);
+            } finally {
+                EntityUtils.consumeQuietly(entity);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to fetch " + robotsUrl + ", disallowing every path for now.", e);
+            return new Entry(getFailureRules(), now + failureTtl);
+        }
+    }
+
+    private static String read(HttpEntity entity) throws IOException {
+        ContentType contentType = ContentType.getLenient(entity);
+        Charset charset = contentType == null || contentType.getCharset() == null ?
+                              UTF_8 : contentType.getCharset();
+        StringBuilder builder = new StringBuilder();
+        try (InputStream in = entity.getContent()) {
+            Reader reader = new InputStreamReader(in, charset);
+            char[] buffer = new char[4096];
+            for (int n = reader.read(buffer); n >= 0 && builder.length() < MAX_ROBOTS_SIZE; n = reader.read(buffer))
+                builder.append(buffer, 0, n);
+        }
+        return builder.length() > MAX_ROBOTS_SIZE ? builder.substring(0, MAX_ROBOTS_SIZE) : builder.toString();
+    }
+
+    private static class Entry {
+        final RobotsRules rules;
+        final long expiresAt;
+
+        Entry(RobotsRules rules, long expiresAt) {
+            this.rules = rules;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
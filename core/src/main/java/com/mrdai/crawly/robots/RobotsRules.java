@@ -0,0 +1,232 @@
+package com.mrdai.crawly.robots;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of a {@code robots.txt} file that apply to a specific user agent, compiled for fast matching.
+ * <p>
+ * Rules are sorted by the length of their patterns in descending order, so that {@link #isAllowed(String)} can
+ * return the verdict of the first matching rule, which is also the most specific one as required by RFC 9309.
+ * {@code Allow} rules take precedence over {@code Disallow} rules with patterns of the same length. Patterns without
+ * wildcards are matched as plain prefixes; patterns containing {@code *} or ending with {@code $} are compiled into
+ * regular expressions.
+ * <p>
+ * Instances of this class are immutable and thus thread-safe.
+ *
+ * @see RobotsCache
+ */
+public class RobotsRules {
+    /** Rules which allow every path, used when the {@code robots.txt} file does not exist. */
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(Collections.<Rule>emptyList(), 0,
+                                                                Collections.<String>emptyList());
+    /** Rules which disallow every path, used when the {@code robots.txt} file is unreachable. */
+    public static final RobotsRules DISALLOW_ALL = new RobotsRules(Collections.singletonList(new Rule("/", false)), 0,
+                                                                   Collections.<String>emptyList());
+
+    private static final String WILDCARD_AGENT = "*";
+
+    private final Rule[] rules;
+    private final long crawlDelay;
+    private final List<String> sitemaps;
+
+    private RobotsRules(List<Rule> rules, long crawlDelay, List<String> sitemaps) {
+        this.rules = rules.toArray(new Rule[rules.size()]);
+        this.crawlDelay = crawlDelay;
+        this.sitemaps = Collections.unmodifiableList(sitemaps);
+    }
+
+    /**
+     * Parses the given content of a {@code robots.txt} file and compiles the rules that apply to the given
+     * user agent. If no group in the file names the user agent, the rules of the {@code *} group are used.
+     * <p>
+     * As required by RFC 9309, a group applies to the user agent only if its name equals the product token of the
+     * user agent, ignoring case; e.g. a {@code User-agent: bot} group does not apply to {@code Crawlybot}.
+     *
+     * @param content the content of the {@code robots.txt} file.
+     * @param userAgent the product token of the crawler, e.g. {@code Crawly}.
+     * @return the compiled rules.
+     */
+    public static RobotsRules parse(String content, String userAgent) {
+        String agent = productTokenOf(userAgent);
+        List<Rule> specificRules = new ArrayList<>();
+        List<Rule> wildcardRules = new ArrayList<>();
+        long specificDelay = -1;
+        long wildcardDelay = -1;
+        boolean specificFound = false;
+        List<String> sitemaps = new ArrayList<>();
+
+        // Whether the current group applies to the user agent specifically or through `*`
+        boolean inSpecific = false;
+        boolean inWildcard = false;
+        boolean readingAgents = false;
+
+        BufferedReader reader = new BufferedReader(new StringReader(content));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int comment = line.indexOf('#');
+                if (comment >= 0)
+                    line = line.substring(0, comment);
+                int colon = line.indexOf(':');
+                if (colon < 0)
+                    continue;
+                String key = line.substring(0, colon).trim().toLowerCase();
+                String value = line.substring(colon + 1).trim();
+
+                switch (key) {
+                    case "user-agent":
+                        if (!readingAgents) {
+                            inSpecific = false;
+                            inWildcard = false;
+                            readingAgents = true;
+                        }
+                        String name = productTokenOf(value);
+                        if (value.equals(WILDCARD_AGENT)) {
+                            inWildcard = true;
+                        } else if (!name.isEmpty() && name.equals(agent)) {
+                            inSpecific = true;
+                            specificFound = true;
+                        }
+                        break;
+                    case "allow":
+                    case "disallow":
+                        readingAgents = false;
+                        if (value.isEmpty())
+                            break;
+                        Rule rule = new Rule(value, key.equals("allow"));
+                        if (inSpecific)
+                            specificRules.add(rule);
+                        if (inWildcard)
+                            wildcardRules.add(rule);
+                        break;
+                    case "crawl-delay":
+                        readingAgents = false;
+                        long delay = parseDelay(value);
+                        if (inSpecific)
+                            specificDelay = Math.max(specificDelay, delay);
+                        if (inWildcard)
+                            wildcardDelay = Math.max(wildcardDelay, delay);
+                        break;
+                    case "sitemap":
+                        if (!value.isEmpty())
+                            sitemaps.add(value);
+                        break;
+                    default:
+                        readingAgents = false;
+                }
+            }
+        } catch (IOException e) {
+            throw new AssertionError("StringReader should never throw IOException.", e);
+        }
+
+        List<Rule> rules = specificFound ? specificRules : wildcardRules;
+        long crawlDelay = specificFound ? specificDelay : wildcardDelay;
+        Collections.sort(rules, new Comparator<Rule>() {
+            @Override
+            public int compare(Rule r1, Rule r2) {
+                if (r1.pattern.length() != r2.pattern.length())
+                    return r2.pattern.length() - r1.pattern.length();
+                return r1.allow == r2.allow ? 0 : (r1.allow ? -1 : 1);
+            }
+        });
+        return new RobotsRules(rules, Math.max(crawlDelay, 0), sitemaps);
+    }
+
+    /**
+     * Returns the lower-case product token leading the given user agent, i.e. its leading letters, underscores
+     * and hyphens, e.g. {@code crawly} for {@code Crawly/1.0 (+https://example.org)}.
+     */
+    private static String productTokenOf(String userAgent) {
+        int end = 0;
+        while (end < userAgent.length()) {
+            char c = userAgent.charAt(end);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == '-'))
+                break;
+            end++;
+        }
+        return userAgent.substring(0, end).toLowerCase();
+    }
+
+    private static long parseDelay(String value) {
+        try {
+            return (long) (Double.parseDouble(value) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns if the given path is allowed to be crawled.
+     *
+     * @param path the path of the URL, optionally followed by its query, e.g. {@code /search?q=crawly}.
+     * @return {@code true} if the given path is allowed; {@code false} otherwise.
+     */
+    public boolean isAllowed(String path) {
+        if (path == null || path.isEmpty())
+            path = "/";
+        for (Rule rule : rules) {
+            if (rule.matches(path))
+                return rule.allow;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the {@code Crawl-delay} that applies to the user agent in milliseconds;
+     * returns {@code 0} if there is none.
+     *
+     * @return the {@code Crawl-delay} in milliseconds, or {@code 0}.
+     */
+    public long getCrawlDelay() {
+        return crawlDelay;
+    }
+
+    /**
+     * Returns the URLs of the sitemaps listed in the {@code robots.txt} file.
+     *
+     * @return the URLs of the listed sitemaps.
+     */
+    public List<String> getSitemaps() {
+        return sitemaps;
+    }
+
+    private static class Rule {
+        final String pattern;
+        final boolean allow;
+        final Pattern regex;
+
+        Rule(String pattern, boolean allow) {
+            this.pattern = pattern;
+            this.allow = allow;
+            this.regex = pattern.indexOf('*') >= 0 || pattern.endsWith("$") ? compile(pattern) : null;
+        }
+
+        boolean matches(String path) {
+            return regex == null ? path.startsWith(pattern) : regex.matcher(path).lookingAt();
+        }
+
+        private static Pattern compile(String pattern) {
+            boolean anchored = pattern.endsWith("$");
+            String body = anchored ? pattern.substring(0, pattern.length() - 1) : pattern;
+            StringBuilder regex = new StringBuilder();
+            int start = 0;
+            for (int star = body.indexOf('*'); star >= 0; star = body.indexOf('*', start)) {
+                if (star > start)
+                    regex.append(Pattern.quote(body.substring(start, star)));
+                regex.append(".*");
+                start = star + 1;
+            }
+            if (start < body.length())
+                regex.append(Pattern.quote(body.substring(start)));
+            if (anchored)
+                regex.append('$');
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+}
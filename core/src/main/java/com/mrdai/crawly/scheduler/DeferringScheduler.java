@@ -0,0 +1,26 @@
+package com.mrdai.crawly.scheduler;
+
+/**
+ * A {@link Scheduler} which may hold requests back for a while, so that {@link #poll()} can return {@code null}
+ * although more requests are still to come, e.g. while the {@code robots.txt} file of their origin is being
+ * fetched in the background, or while the {@code Crawl-delay} of their origin has not elapsed.
+ * <p>
+ * A {@code DeferringScheduler} never blocks in {@link #push(com.mrdai.crawly.network.Request) push} nor
+ * {@link #poll()}. Instead, crawlers keep polling it from time to time while {@link #hasDeferred()} returns
+ * {@code true}, and only end the crawl once it returns {@code false}. Every {@link FilterScheduler} forwards
+ * {@link #hasDeferred()} to its underlying {@code Scheduler}, so that a {@code DeferringScheduler} can be wrapped
+ * by other filters.
+ *
+ * @see RobotsScheduler
+ * @see SeedingScheduler
+ */
+public interface DeferringScheduler extends Scheduler {
+
+    /**
+     * Returns if this {@code Scheduler} holds requests back which {@link #poll()} will return later.
+     *
+     * @return {@code true} if more requests are to come; {@code false} otherwise.
+     */
+    boolean hasDeferred();
+
+}
@@ -0,0 +1,86 @@
+package com.mrdai.crawly.scheduler;
+
+import com.mrdai.crawly.network.CrawlMetadata;
+import com.mrdai.crawly.network.Request;
+
+/**
+ * {@code FilterScheduler} which limits how deep and how broad a crawl can go, based on the
+ * {@link CrawlMetadata} of each pushed {@code Request}.
+ * <p>
+ * A {@code Request} is rejected if its depth exceeds the maximum depth, or if the {@code Request} it was discovered
+ * in has already had the maximum number of out-links accepted by this scheduler. Both checks only read and update
+ * the metadata of the request and its parent, thus cost {@code O(1)} per push. A request pushed again, e.g. for
+ * a retry, is counted as an out-link of its parent only once, and is never rejected for the out-link limit.
+ * <p>
+ * Requests without metadata are treated as starting requests and are always accepted.
+ */
+public class DepthLimitScheduler extends FilterScheduler {
+    private final int maxDepth;
+    private final int maxOutLinks;
+
+    /**
+     * Creates a {@code DepthLimitScheduler} with the given underlying {@code Scheduler} and maximum depth.
+     * The number of out-links per page is not limited.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param maxDepth the maximum depth of accepted requests.
+     */
+    public DepthLimitScheduler(Scheduler scheduler, int maxDepth) {
+        this(scheduler, maxDepth, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a {@code DepthLimitScheduler} with the given underlying {@code Scheduler}, maximum depth
+     * and maximum number of out-links per page.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param maxDepth the maximum depth of accepted requests.
+     * @param maxOutLinks the maximum number of accepted requests discovered in a single page.
+     */
+    public DepthLimitScheduler(Scheduler scheduler, int maxDepth, int maxOutLinks) {
+        super(scheduler);
+        if (maxDepth < 0)
+            throw new IllegalArgumentException("The maximum depth cannot be negative.");
+        if (maxOutLinks < 0)
+            throw new IllegalArgumentException("The maximum number of out-links cannot be negative.");
+        this.maxDepth = maxDepth;
+        this.maxOutLinks = maxOutLinks;
+    }
+
+    @Override
+    protected boolean shouldAdd(Request request) {
+        CrawlMetadata metadata = request.getMetadata();
+        if (metadata == null)
+            return true;
+        if (metadata.getDepth() > maxDepth)
+            return false;
+        if (metadata.isCountedAsOutLink())
+            return true;
+        CrawlMetadata parentMetadata = parentMetadata(metadata);
+        return parentMetadata == null || parentMetadata.getOutLinks() < maxOutLinks;
+    }
+
+    @Override
+    protected void record(Request request) {
+        CrawlMetadata metadata = request.getMetadata();
+        if (metadata == null)
+            return;
+        CrawlMetadata parentMetadata = parentMetadata(metadata);
+        if (parentMetadata != null && metadata.markCountedAsOutLink())
+            parentMetadata.incrementOutLinks();
+    }
+
+    private static CrawlMetadata parentMetadata(CrawlMetadata metadata) {
+        return metadata.getParent() == null ? null : metadata.getParent().getMetadata();
+    }
+
+    /** Returns the maximum depth of accepted requests. */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** Returns the maximum number of accepted requests discovered in a single page. */
+    public int getMaxOutLinks() {
+        return maxOutLinks;
+    }
+}
@@ -0,0 +1,40 @@
+package com.mrdai.crawly.scheduler;
+
+import com.mrdai.crawly.downloader.CachingDnsResolver;
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.http.HttpRequest;
+
+/**
+ * {@code FilterScheduler} which accepts every {@link Request}, and prefetches the host of every pushed
+ * {@link HttpRequest} with the given {@link CachingDnsResolver}, so that the host has been resolved by the
+ * time the request is polled and downloaded.
+ * <p>
+ * The resolver should be the one given to the {@link com.mrdai.crawly.downloader.HttpDownloader HttpDownloader}
+ * downloading the requests. When wrapped by other {@code FilterScheduler}s, it only prefetches the hosts of
+ * the requests accepted by every other filter.
+ */
+public class DnsPrefetchScheduler extends FilterScheduler {
+    private final CachingDnsResolver resolver;
+
+    /**
+     * Creates a {@code DnsPrefetchScheduler} with the given underlying {@code Scheduler} and resolver.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param resolver the {@code CachingDnsResolver} resolving the hosts of the pushed requests.
+     */
+    public DnsPrefetchScheduler(Scheduler scheduler, CachingDnsResolver resolver) {
+        super(scheduler);
+        this.resolver = resolver;
+    }
+
+    @Override
+    protected boolean shouldAdd(Request request) {
+        return true;
+    }
+
+    @Override
+    protected void record(Request request) {
+        if (request instanceof HttpRequest)
+            resolver.prefetch(((HttpRequest) request).getRequestTarget().getHost());
+    }
+}
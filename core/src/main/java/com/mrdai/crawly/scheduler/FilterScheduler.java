@@ -18,8 +18,10 @@ import com.mrdai.crawly.network.Request;
  * Additionally, this class also provide a {@link #pushByForce(Request)} method, which can adds the given request
  * without considering the result of {@link #shouldAdd(Request)}. Note that this method will also invoke
  * {@link #record(Request)} before it adds the request to the underlying scheduler.
+ * <p>
+ * {@link #hasDeferred()} is forwarded to the underlying scheduler if it is a {@link DeferringScheduler}.
  */
-public abstract class FilterScheduler implements Scheduler {
+public abstract class FilterScheduler implements DeferringScheduler {
     protected final Scheduler scheduler;
 
     /**
@@ -82,4 +84,9 @@ public abstract class FilterScheduler implements Scheduler {
     public Request poll() {
         return scheduler.poll();
     }
+
+    @Override
+    public boolean hasDeferred() {
+        return scheduler instanceof DeferringScheduler && ((DeferringScheduler) scheduler).hasDeferred();
+    }
 }
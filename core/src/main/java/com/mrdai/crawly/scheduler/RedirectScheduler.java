@@ -0,0 +1,104 @@
+package com.mrdai.crawly.scheduler;
+
+import com.mrdai.crawly.downloader.RedirectCache;
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.http.BasicHttpRequest;
+import com.mrdai.crawly.network.http.HttpMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+
+/**
+ * {@code FilterScheduler} which consults the given {@link RedirectCache}, shared with the
+ * {@link com.mrdai.crawly.downloader.HttpDownloader HttpDownloader} downloading the requests, so that requests for
+ * known aliases cost no network I/O at all.
+ * <p>
+ * On default, a {@code GET} request is dropped if its URL is a known alias, or a final URL already reached through
+ * a redirect, as the content it leads to has been downloaded already. Alternatively, the scheduler can rewrite
+ * requests for known aliases to their final URL instead, e.g. for recurring crawls which should download every
+ * page again but not follow the same redirects; the rewritten requests are then pushed to the underlying
+ * {@code Scheduler}, thus a {@link DistinctScheduler} beneath this scheduler deduplicates them by their final URL.
+ * <p>
+ * Only {@link BasicHttpRequest}s with an absolute URL are considered; every other request is always accepted
+ * as is. Requests pushed via {@link #pushByForce(Request)} are never rewritten.
+ */
+public class RedirectScheduler extends FilterScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(RedirectScheduler.class);
+
+    private final RedirectCache redirects;
+    private final boolean rewrite;
+
+    /**
+     * Creates a {@code RedirectScheduler} which drops requests for known aliases.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param redirects the {@code RedirectCache} holding the known redirects.
+     */
+    public RedirectScheduler(Scheduler scheduler, RedirectCache redirects) {
+        this(scheduler, redirects, false);
+    }
+
+    /**
+     * Creates a {@code RedirectScheduler} which either drops or rewrites requests for known aliases.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param redirects the {@code RedirectCache} holding the known redirects.
+     * @param rewrite {@code true} to rewrite requests for known aliases to their final URL;
+     *                {@code false} to drop them.
+     */
+    public RedirectScheduler(Scheduler scheduler, RedirectCache redirects, boolean rewrite) {
+        super(scheduler);
+        this.redirects = redirects;
+        this.rewrite = rewrite;
+    }
+
+    @Override
+    public boolean push(Request request) {
+        if (!rewrite)
+            return super.push(request);
+        URI uri = absoluteUriOf(request);
+        URI target = uri == null ? null : redirects.resolve(uri);
+        if (target == null)
+            return super.push(request);
+
+        BasicHttpRequest original = (BasicHttpRequest) request;
+        BasicHttpRequest rewritten = new BasicHttpRequest(original.getMethod(), target,
+                                                          original.getProtocolVersion());
+        rewritten.setHeaders(original.getAllHeaders());
+        rewritten.setMetadata(original.getMetadata());
+        LOG.debug("Rewriting request {} to {} as it is a known alias.", request, rewritten);
+        return super.push(rewritten);
+    }
+
+    @Override
+    protected boolean shouldAdd(Request request) {
+        if (rewrite)
+            return true;
+        URI uri = absoluteUriOf(request);
+        if (uri == null)
+            return true;
+        if (redirects.resolve(uri) != null) {
+            LOG.debug("Dropping request {} as it is a known alias.", request);
+            return false;
+        }
+        if (redirects.isTarget(uri)) {
+            LOG.debug("Dropping request {} as it has been reached through a redirect.", request);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected void record(Request request) {}
+
+    private static URI absoluteUriOf(Request request) {
+        if (request.getClass() != BasicHttpRequest.class)
+            return null;
+        BasicHttpRequest hRequest = (BasicHttpRequest) request;
+        URI uri = hRequest.getRequestTarget();
+        if (hRequest.getStandardMethod() != HttpMethod.GET || uri.getScheme() == null || uri.getHost() == null)
+            return null;
+        return uri;
+    }
+}
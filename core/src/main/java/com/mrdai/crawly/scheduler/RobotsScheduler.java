@@ -0,0 +1,275 @@
+package com.mrdai.crawly.scheduler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.http.HttpRequest;
+import com.mrdai.crawly.robots.RobotsCache;
+import com.mrdai.crawly.robots.RobotsRules;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code FilterScheduler} which drops every {@link HttpRequest} disallowed by the {@code robots.txt} file of its
+ * origin, and spaces out the requests of each origin according to its {@code Crawl-delay}.
+ * <p>
+ * The rules of each origin are provided by a {@link RobotsCache}. The scheduler never fetches a {@code robots.txt}
+ * file itself, as it is used under the lock of the crawler: a request pushed for an origin whose rules are not
+ * cached is parked, while the {@code robots.txt} file of the origin is fetched by a background thread, and is
+ * pushed to the underlying {@code Scheduler}, or dropped, once the rules have arrived. If the rules cannot be
+ * loaded at all, the {@link RobotsCache#getFailureRules() failure rules} of the cache apply. Requests other than
+ * {@code HttpRequest}s, as well as requests with relative URIs, are always accepted.
+ * <p>
+ * When a polled request belongs to an origin whose {@code Crawl-delay} has not elapsed since its last request,
+ * the request is put aside until its turn comes and the next request is polled instead. At most
+ * {@code maxDeferred} requests are put aside at once. If there is no other request to return, {@link #poll()}
+ * returns {@code null} rather than waiting, and {@link #hasDeferred()} tells the crawler to poll again later.
+ * Origins without a {@code Crawl-delay} cost a single lookup in the {@code RobotsCache} per poll.
+ * <p>
+ * Like most schedulers, this class is not thread-safe; the background threads only hand the origins whose rules
+ * have arrived over to the next call to {@link #push(Request)} or {@link #poll()}.
+ * <p>
+ * On default, at most {@code 1000} requests are put aside at once, and {@code robots.txt} files are fetched by
+ * {@code 4} threads.
+ */
+public class RobotsScheduler extends FilterScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(RobotsScheduler.class);
+
+    private final RobotsCache robots;
+    private final int maxDeferred;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, List<Request>> parked = new HashMap<>();
+    private final Queue<Fetched> fetched = new ConcurrentLinkedQueue<>();
+    private final Map<String, Long> nextSlots = new HashMap<>();
+    private final Queue<Deferred> deferred = new PriorityQueue<>(16, new Comparator<Deferred>() {
+        @Override
+        public int compare(Deferred d1, Deferred d2) {
+            return Long.compare(d1.dueAt, d2.dueAt);
+        }
+    });
+
+    /**
+     * Creates a {@code RobotsScheduler} with the given underlying {@code Scheduler} and {@code RobotsCache}.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param robots the {@code RobotsCache} providing the rules of each origin.
+     */
+    public RobotsScheduler(Scheduler scheduler, RobotsCache robots) {
+        this(scheduler, robots, 1000);
+    }
+
+    /**
+     * Creates a {@code RobotsScheduler} with the given underlying {@code Scheduler} and {@code RobotsCache}.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param robots the {@code RobotsCache} providing the rules of each origin.
+     * @param maxDeferred the maximum number of requests put aside to honor {@code Crawl-delay}.
+     */
+    public RobotsScheduler(Scheduler scheduler, RobotsCache robots, int maxDeferred) {
+        this(scheduler, robots, maxDeferred, 4);
+    }
+
+    /**
+     * Creates a {@code RobotsScheduler} with the given underlying {@code Scheduler} and {@code RobotsCache}.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param robots the {@code RobotsCache} providing the rules of each origin.
+     * @param maxDeferred the maximum number of requests put aside to honor {@code Crawl-delay}.
+     * @param fetchThreads the number of threads fetching {@code robots.txt} files in the background.
+     */
+    public RobotsScheduler(Scheduler scheduler, RobotsCache robots, int maxDeferred, int fetchThreads) {
+        super(scheduler);
+        this.robots = robots;
+        this.maxDeferred = maxDeferred;
+        this.executor = new ThreadPoolExecutor(fetchThreads, fetchThreads, 1, TimeUnit.MINUTES,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new ThreadFactoryBuilder().setDaemon(true)
+                                                                         .setNameFormat("robots-fetch-%d")
+                                                                         .build());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Pushes the given {@code Request} to this {@code Scheduler}, or parks it until the rules of its origin have
+     * been fetched if they are not cached, in which case {@code true} is returned although the request may still
+     * be dropped once the rules have arrived.
+     *
+     * @param request the {@code Request} to be pushed to the waiting list
+     * @return {@code true} if the request is pushed or parked; {@code false} otherwise.
+     */
+    @Override
+    public boolean push(Request request) {
+        pushFetched();
+        URI uri = absoluteUriOf(request);
+        if (uri != null && robots.getIfPresent(uri) == null) {
+            park(request, uri);
+            return true;
+        }
+        return super.push(request);
+    }
+
+    @Override
+    protected boolean shouldAdd(Request request) {
+        URI uri = absoluteUriOf(request);
+        if (uri == null)
+            return true;
+        RobotsRules rules = robots.getIfPresent(uri);
+        return rules == null || isAllowed(request, uri, rules);
+    }
+
+    private static boolean isAllowed(Request request, URI uri, RobotsRules rules) {
+        String path = uri.getRawPath();
+        if (uri.getRawQuery() != null)
+            path = path + '?' + uri.getRawQuery();
+        if (rules.isAllowed(path))
+            return true;
+        LOG.debug("Dropping request {} as it is disallowed by robots.txt.", request);
+        return false;
+    }
+
+    @Override
+    protected void record(Request request) {}
+
+    /** Parks the given request until the rules of its origin have been fetched, starting the fetch if needed. */
+    private void park(Request request, final URI uri) {
+        final String origin = RobotsCache.originOf(uri);
+        List<Request> requests = parked.get(origin);
+        if (requests != null) {
+            requests.add(request);
+            return;
+        }
+        requests = new ArrayList<>();
+        requests.add(request);
+        parked.put(origin, requests);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                RobotsRules rules = robots.getFailureRules();
+                try {
+                    rules = robots.get(uri);
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to load robots.txt of " + origin + ", applying the failure rules.", e);
+                } finally {
+                    fetched.add(new Fetched(origin, rules));
+                }
+            }
+        });
+    }
+
+    /**
+     * Pushes the parked requests of every origin whose rules have been fetched since the last call, filtered by
+     * the fetched rules rather than by the cache, which may have evicted them since.
+     */
+    private void pushFetched() {
+        for (Fetched done = fetched.poll(); done != null; done = fetched.poll()) {
+            List<Request> requests = parked.remove(done.origin);
+            if (requests == null)
+                continue;
+            for (Request request : requests) {
+                if (isAllowed(request, absoluteUriOf(request), done.rules))
+                    pushByForce(request);
+            }
+        }
+    }
+
+    @Override
+    public Request poll() {
+        pushFetched();
+        long now = System.currentTimeMillis();
+        Deferred head = deferred.peek();
+        if (head != null && head.dueAt <= now)
+            return deferred.poll().request;
+
+        while (deferred.size() < maxDeferred) {
+            Request request = scheduler.poll();
+            if (request == null)
+                break;
+            long slot = reserve(request, now);
+            if (slot <= now)
+                return request;
+            deferred.add(new Deferred(request, slot));
+        }
+
+        // Every waiting request is put aside until its origin is ready
+        return null;
+    }
+
+    /**
+     * Returns if requests are parked until the rules of their origin are fetched, or put aside to honor
+     * {@code Crawl-delay}, or if the underlying {@code Scheduler} holds requests back.
+     *
+     * @return {@code true} if more requests are to come; {@code false} otherwise.
+     */
+    @Override
+    public boolean hasDeferred() {
+        return !parked.isEmpty() || !deferred.isEmpty() || super.hasDeferred();
+    }
+
+    /**
+     * Reserves the next slot of the origin of the given request and returns its time,
+     * which is no later than {@code now} if the request can be sent right away.
+     */
+    private long reserve(Request request, long now) {
+        URI uri = absoluteUriOf(request);
+        if (uri == null)
+            return now;
+        RobotsRules rules = robots.getIfPresent(uri);
+        if (rules == null || rules.getCrawlDelay() <= 0)
+            return now;
+
+        // Forget origins whose slots have passed, as they no longer delay anything
+        if (nextSlots.size() > maxDeferred) {
+            for (Iterator<Long> iter = nextSlots.values().iterator(); iter.hasNext(); ) {
+                if (iter.next() <= now)
+                    iter.remove();
+            }
+        }
+
+        String origin = RobotsCache.originOf(uri);
+        Long next = nextSlots.get(origin);
+        long slot = next == null ? now : Math.max(now, next);
+        nextSlots.put(origin, slot + rules.getCrawlDelay());
+        return slot;
+    }
+
+    private static URI absoluteUriOf(Request request) {
+        if (!(request instanceof HttpRequest))
+            return null;
+        URI uri = ((HttpRequest) request).getRequestTarget();
+        return uri.getScheme() == null || uri.getHost() == null ? null : uri;
+    }
+
+    /** The rules fetched for an origin, handed over by a background thread. */
+    private static class Fetched {
+        final String origin;
+        final RobotsRules rules;
+
+        Fetched(String origin, RobotsRules rules) {
+            this.origin = origin;
+            this.rules = rules;
+        }
+    }
+
+    private static class Deferred {
+        final Request request;
+        final long dueAt;
+
+        Deferred(Request request, long dueAt) {
+            this.request = request;
+            this.dueAt = dueAt;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.mrdai.crawly.scheduler;
+
+import com.mrdai.crawly.network.CrawlMetadata;
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.seed.SeedSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * {@code Scheduler} which pulls starting requests from {@link SeedSource}s lazily, only when the underlying
+ * {@code Scheduler} is running low on requests.
+ * <p>
+ * Seeds are read by a background daemon thread, started by the first {@link #poll()}, into a buffer holding at most
+ * one batch of seeds, so that a slow {@code SeedSource}, such as one downloading sitemaps, never holds up the thread
+ * polling this scheduler, nor the lock a crawler holds around it. {@code SeedSource}s are consumed in order; a source
+ * is closed once it is exhausted or fails. The scheduler owns its sources: {@link #close()} stops the reader, waits
+ * for it to leave the source it is reading, and closes every source not closed yet, read or not.
+ * <p>
+ * The scheduler counts the requests pushed through it that have not been polled yet. Whenever this count is no
+ * more than the low watermark upon {@link #poll()}, the buffered seeds are pushed through the underlying
+ * {@code Scheduler}, so that they also go through any filter it applies. {@link #poll()} returns {@code null} when
+ * the underlying {@code Scheduler} is empty and no seed is buffered; {@link #hasDeferred()} then tells whether the
+ * {@code SeedSource}s may still provide more seeds.
+ * <p>
+ * Seeds without a {@link CrawlMetadata} are assigned the metadata of a starting request.
+ * <p>
+ * On default, a batch of {@code 1000} seeds is pushed whenever less than {@code 1000} requests are waiting.
+ *
+ * @see com.mrdai.crawly.Crawler#addSeedSource(SeedSource)
+ */
+public class SeedingScheduler implements DeferringScheduler, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SeedingScheduler.class);
+    private static final long READER_JOIN_TIMEOUT = 10000;
+
+    private final Scheduler scheduler;
+    private final List<SeedSource> sources;
+    private final boolean[] closed;
+    private final int lowWatermark;
+    private final BlockingQueue<Request> seeds;
+    private volatile boolean exhausted;
+    private volatile boolean closing;
+    private Thread reader;
+    private long pending;
+
+    /**
+     * Creates a {@code SeedingScheduler} with the given underlying {@code Scheduler} and {@code SeedSource}s.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param sources the {@code SeedSource}s to pull starting requests from.
+     */
+    public SeedingScheduler(Scheduler scheduler, Collection<? extends SeedSource> sources) {
+        this(scheduler, sources, 1000, 1000);
+    }
+
+    /**
+     * Creates a {@code SeedingScheduler} with the given underlying {@code Scheduler} and {@code SeedSource}s,
+     * which pushes at most the given number of seeds whenever no more than the given number of requests are waiting.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param sources the {@code SeedSource}s to pull starting requests from.
+     * @param lowWatermark the number of waiting requests at or below which more seeds are pushed.
+     * @param batchSize the maximum number of seeds buffered and pushed at once.
+     */
+    public SeedingScheduler(Scheduler scheduler, Collection<? extends SeedSource> sources,
+                            int lowWatermark, int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("The batch size must be positive.");
+        this.scheduler = scheduler;
+        this.sources = new ArrayList<>(sources);
+        this.closed = new boolean[this.sources.size()];
+        this.lowWatermark = lowWatermark;
+        this.seeds = new ArrayBlockingQueue<>(batchSize);
+    }
+
+    @Override
+    public boolean push(Request request) {
+        if (scheduler.push(request)) {
+            pending++;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Request poll() {
+        if (reader == null)
+            startReader();
+        if (pending <= lowWatermark)
+            pushSeeds();
+        Request request = scheduler.poll();
+        while (request == null && !seeds.isEmpty()) {
+            pushSeeds();
+            request = scheduler.poll();
+        }
+        if (request != null && pending > 0)
+            pending--;
+        return request;
+    }
+
+    /**
+     * Returns if the {@code SeedSource}s may provide more seeds, or if the underlying {@code Scheduler} holds
+     * requests back.
+     *
+     * @return {@code true} if more requests are to come; {@code false} otherwise.
+     */
+    @Override
+    public boolean hasDeferred() {
+        // Reads `exhausted` first, as the reader buffers every seed before it sets it
+        boolean done = reader == null ? sources.isEmpty() : exhausted;
+        return !done || !seeds.isEmpty()
+               || scheduler instanceof DeferringScheduler && ((DeferringScheduler) scheduler).hasDeferred();
+    }
+
+    /** Pushes the buffered seeds through the underlying scheduler. */
+    private void pushSeeds() {
+        int pushed = 0;
+        for (Request seed = seeds.poll(); seed != null; seed = seeds.poll()) {
+            push(seed);
+            pushed++;
+        }
+        if (pushed > 0)
+            LOG.debug("Pushed {} seeds from seed sources.", pushed);
+    }
+
+    private void startReader() {
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readSeeds();
+            }
+        }, "SeedingScheduler.ReaderThread");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /** Reads every seed of the sources into the buffer, waiting whenever it is full. */
+    private void readSeeds() {
+        try {
+            // Sources may turn the interrupt into an exception, hence the flag
+            for (int i = 0; i < sources.size() && !closing; i++) {
+                SeedSource source = sources.get(i);
+                try {
+                    for (Request seed = source.next(); seed != null && !closing; seed = source.next()) {
+                        if (seed.getMetadata() == null)
+                            seed.setMetadata(new CrawlMetadata());
+                        seeds.put(seed);
+                    }
+                } catch (IOException e) {
+                    if (closing)
+                        break;
+                    LOG.error("Failed to read from seed source " + source + ", skipping the rest of it.", e);
+                } finally {
+                    closeSource(i);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Seed reader interrupted, leaving the remaining seeds unread.");
+        } finally {
+            exhausted = true;
+        }
+    }
+
+    /** Closes the source at the given index, unless it has been closed already. */
+    private void closeSource(int index) {
+        // Locks the flags rather than the scheduler, whose lock the crawler holds while polling
+        synchronized (closed) {
+            if (closed[index])
+                return;
+            closed[index] = true;
+        }
+        SeedSource source = sources.get(index);
+        try {
+            source.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close seed source " + source, e);
+        }
+    }
+
+    /**
+     * Stops reading seeds from the {@code SeedSource}s, and closes every {@code SeedSource} not closed yet.
+     * The reader is interrupted, and waited for at most {@code 10} seconds to leave the source it is reading;
+     * a source still being read after that is closed all the same, which unblocks most sources.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        if (reader != null) {
+            reader.interrupt();
+            try {
+                reader.join(READER_JOIN_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (reader.isAlive())
+                LOG.warn("Seed reader did not stop within {}ms, closing the seed sources under it.",
+                         READER_JOIN_TIMEOUT);
+        }
+        for (int i = 0; i < sources.size(); i++)
+            closeSource(i);
+    }
+}
@@ -0,0 +1,333 @@
+package com.mrdai.crawly.scheduler;
+
+import com.mrdai.crawly.network.CrawlMetadata;
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.http.HttpRequest;
+import com.mrdai.crawly.util.CountMinSketch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code FilterScheduler} which detects crawler traps, i.e. effectively infinite URL spaces such as calendars,
+ * session IDs in paths or faceted search, where every URL is unique and thus cannot be caught by schedulers
+ * like {@link DistinctScheduler} or {@link BloomFilterScheduler}.
+ * <p>
+ * Only {@link HttpRequest}s are examined; other requests are always accepted. An {@code HttpRequest} is dropped if:
+ * <ul>
+ *     <li>its path has more segments than the maximum path depth;</li>
+ *     <li>any segment of its path appears more often than the maximum segment repeats, e.g. {@code /a/b/a/b/a/b};</li>
+ *     <li>its query has more parameters than the maximum query parameters;</li>
+ *     <li>it is the last of a chain of requests on the same host, each discovered in its predecessor and each with
+ *         a deeper path than its predecessor, which is longer than the maximum depth growth.</li>
+ * </ul>
+ * Additionally, each URL is reduced to a pattern, made up of its host, its path with digits and long identifiers
+ * masked, and the sorted names of its query parameters. Accepted URLs are counted per pattern and per host in
+ * {@link CountMinSketch}es of fixed size. The thresholds scale with the size of each host: a pattern is throttled,
+ * i.e. only one out of every {@code throttleRate} URLs of the pattern is accepted, once it reaches the throttle
+ * threshold and makes up at least the throttle share of the URLs accepted for its host; it is dropped once it
+ * reaches the drop threshold and makes up at least the drop share of its host. Thus the regular patterns of a large
+ * site, such as its product pages, are left alone, while a pattern which swamps its host is cut off. The counts are
+ * halved once per decay period, so that counts of patterns no longer seen fade out. Requests pushed again after
+ * a failed attempt, and requests pushed via {@link #pushByForce(Request)}, are accepted without being counted.
+ * <p>
+ * On default, the maximum path depth is {@code 16}, the maximum segment repeats is {@code 3}, the maximum query
+ * parameters is {@code 12}, the maximum depth growth is {@code 8}, a pattern is throttled to {@code 1} out of
+ * {@code 10} after {@code 1000} accepted URLs making up half of its host, and dropped after {@code 10000} accepted
+ * URLs making up {@code 90%} of its host. The counts are halved every hour. The sketches use {@code 4} rows of
+ * {@code 65536} counters each, i.e. {@code 2MB} of memory.
+ */
+public class TrapFilterScheduler extends FilterScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(TrapFilterScheduler.class);
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1 << 16;
+    private static final int MAX_SEGMENT_LENGTH = 20;
+
+    private final CountMinSketch patterns;
+    private final CountMinSketch hosts;
+    private long lastDecay = System.nanoTime();
+
+    private int maxPathDepth = 16;
+    private int maxSegmentRepeats = 3;
+    private int maxQueryParams = 12;
+    private int maxDepthGrowth = 8;
+    private int throttleThreshold = 1000;
+    private int throttleRate = 10;
+    private int dropThreshold = 10000;
+    private double throttleShare = 0.5;
+    private double dropShare = 0.9;
+    private long decayPeriod = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * Creates a {@code TrapFilterScheduler} with the given underlying {@code Scheduler}.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     */
+    public TrapFilterScheduler(Scheduler scheduler) {
+        this(scheduler, SKETCH_WIDTH);
+    }
+
+    /**
+     * Creates a {@code TrapFilterScheduler} with the given underlying {@code Scheduler}, whose pattern sketch
+     * has the given number of counters per row. Wider sketches mistake fewer unrelated patterns for each other.
+     *
+     * @param scheduler the given underlying {@code Scheduler}.
+     * @param sketchWidth the given number of counters per row of the pattern sketch.
+     */
+    public TrapFilterScheduler(Scheduler scheduler, int sketchWidth) {
+        super(scheduler);
+        patterns = new CountMinSketch(SKETCH_DEPTH, sketchWidth);
+        hosts = new CountMinSketch(SKETCH_DEPTH, sketchWidth);
+    }
+
+    /**
+     * Pushes the given {@code Request} to the underlying {@code Scheduler} without examining it, nor counting it
+     * against its URL pattern.
+     *
+     * @param request the {@code Request} to be pushed to the waiting list
+     * @return {@code true} if the request is pushed to this {@code Scheduler} successfully; {@code false} otherwise.
+     */
+    @Override
+    public boolean pushByForce(Request request) {
+        return scheduler.push(request);
+    }
+
+    @Override
+    protected boolean shouldAdd(Request request) {
+        if (!(request instanceof HttpRequest) || isRetry(request))
+            return true;
+        URI uri = ((HttpRequest) request).getRequestTarget();
+        if (uri.getHost() == null)
+            return true;
+
+        String[] segments = segmentsOf(uri);
+        if (segments.length > maxPathDepth) {
+            LOG.debug("Dropping request {}: path is deeper than {} segments.", request, maxPathDepth);
+            return false;
+        }
+        if (maxRepeats(segments) > maxSegmentRepeats) {
+            LOG.debug("Dropping request {}: path segment repeated more than {} times.", request, maxSegmentRepeats);
+            return false;
+        }
+        String[] params = paramNamesOf(uri);
+        if (params.length > maxQueryParams) {
+            LOG.debug("Dropping request {}: query has more than {} parameters.", request, maxQueryParams);
+            return false;
+        }
+        if (depthGrowth(request, uri, segments.length) > maxDepthGrowth) {
+            LOG.debug("Dropping request {}: path grew deeper for more than {} consecutive links.",
+                request, maxDepthGrowth);
+            return false;
+        }
+
+        decayIfDue();
+        int count = patterns.estimate(patternOf(uri, segments, params));
+        if (count < throttleThreshold)
+            return true;
+        int hostCount = hosts.estimate(hostOf(uri));
+        if (count >= dropThreshold && count >= hostCount * dropShare) {
+            LOG.debug("Dropping request {}: its URL pattern has reached the drop threshold.", request);
+            return false;
+        }
+        return count < hostCount * throttleShare || ThreadLocalRandom.current().nextInt(throttleRate) == 0;
+    }
+
+    @Override
+    protected void record(Request request) {
+        if (!(request instanceof HttpRequest) || isRetry(request))
+            return;
+        URI uri = ((HttpRequest) request).getRequestTarget();
+        if (uri.getHost() == null)
+            return;
+
+        String pattern = patternOf(uri, segmentsOf(uri), paramNamesOf(uri));
+        int count = patterns.add(pattern);
+        int hostCount = hosts.add(hostOf(uri));
+        if (count == throttleThreshold && count >= hostCount * throttleShare)
+            LOG.info("URL pattern `{}` looks like a crawler trap. Throttling to 1 out of {} requests.",
+                pattern, throttleRate);
+        else if (count == dropThreshold && count >= hostCount * dropShare)
+            LOG.info("URL pattern `{}` looks like a crawler trap. Dropping further requests.", pattern);
+    }
+
+    /** Returns if the given request has been attempted before, i.e. it is pushed again for a retry. */
+    private static boolean isRetry(Request request) {
+        CrawlMetadata metadata = request.getMetadata();
+        return metadata != null && metadata.getAttempts() > 0;
+    }
+
+    /** Halves the counts if a decay period has passed since they were last halved. */
+    private void decayIfDue() {
+        long now = System.nanoTime();
+        if (now - lastDecay >= decayPeriod) {
+            patterns.decay();
+            hosts.decay();
+            lastDecay = now;
+        }
+    }
+
+    /**
+     * Returns the number of consecutive ancestors of the given request which were on the same host
+     * and had a shallower path than their child, up to {@code maxDepthGrowth + 1}.
+     */
+    private int depthGrowth(Request request, URI uri, int pathDepth) {
+        int growth = 0;
+        CrawlMetadata metadata = request.getMetadata();
+        while (metadata != null && metadata.getParent() instanceof HttpRequest && growth <= maxDepthGrowth) {
+            Request parent = metadata.getParent();
+            URI parentUri = ((HttpRequest) parent).getRequestTarget();
+            if (!uri.getHost().equalsIgnoreCase(parentUri.getHost()))
+                break;
+            int parentDepth = segmentsOf(parentUri).length;
+            if (parentDepth >= pathDepth)
+                break;
+            growth++;
+            pathDepth = parentDepth;
+            metadata = parent.getMetadata();
+        }
+        return growth;
+    }
+
+    private static String[] segmentsOf(URI uri) {
+        String path = uri.getRawPath();
+        if (path == null || path.isEmpty() || path.equals("/"))
+            return new String[0];
+        int start = path.charAt(0) == '/' ? 1 : 0;
+        int end = path.charAt(path.length() - 1) == '/' ? path.length() - 1 : path.length();
+        return start >= end ? new String[0] : path.substring(start, end).split("/");
+    }
+
+    private static int maxRepeats(String[] segments) {
+        int max = segments.length == 0 ? 0 : 1;
+        for (int i = 0; i < segments.length; i++) {
+            int count = 1;
+            for (int j = i + 1; j < segments.length; j++) {
+                if (segments[i].equals(segments[j]))
+                    count++;
+            }
+            max = Math.max(max, count);
+        }
+        return max;
+    }
+
+    private static String[] paramNamesOf(URI uri) {
+        String query = uri.getRawQuery();
+        if (query == null || query.isEmpty())
+            return new String[0];
+        String[] params = query.split("&");
+        for (int i = 0; i < params.length; i++) {
+            int eq = params[i].indexOf('=');
+            if (eq >= 0)
+                params[i] = params[i].substring(0, eq);
+        }
+        Arrays.sort(params);
+        return params;
+    }
+
+    private static String hostOf(URI uri) {
+        return uri.getHost().toLowerCase();
+    }
+
+    private static String patternOf(URI uri, String[] segments, String[] params) {
+        StringBuilder builder = new StringBuilder(hostOf(uri));
+        for (String segment : segments) {
+            builder.append('/');
+            if (segment.length() > MAX_SEGMENT_LENGTH) {
+                builder.append('*');
+                continue;
+            }
+            boolean inDigits = false;
+            for (int i = 0; i < segment.length(); i++) {
+                char c = segment.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    if (!inDigits)
+                        builder.append('#');
+                    inDigits = true;
+                } else {
+                    builder.append(c);
+                    inDigits = false;
+                }
+            }
+        }
+        if (params.length > 0) {
+            builder.append('?');
+            for (int i = 0; i < params.length; i++) {
+                if (i > 0)
+                    builder.append('&');
+                builder.append(params[i]);
+            }
+        }
+        return builder.toString();
+    }
+
+    /** Sets the maximum number of segments in the path of an accepted request. */
+    public void setMaxPathDepth(int maxPathDepth) {
+        this.maxPathDepth = maxPathDepth;
+    }
+
+    /** Sets the maximum number of times a segment can appear in the path of an accepted request. */
+    public void setMaxSegmentRepeats(int maxSegmentRepeats) {
+        this.maxSegmentRepeats = maxSegmentRepeats;
+    }
+
+    /** Sets the maximum number of parameters in the query of an accepted request. */
+    public void setMaxQueryParams(int maxQueryParams) {
+        this.maxQueryParams = maxQueryParams;
+    }
+
+    /** Sets the maximum number of consecutive links on the same host that lead to a deeper path. */
+    public void setMaxDepthGrowth(int maxDepthGrowth) {
+        this.maxDepthGrowth = maxDepthGrowth;
+    }
+
+    /**
+     * Sets the number of accepted requests of a URL pattern after which only one out of every
+     * {@code throttleRate} requests of the pattern is accepted.
+     *
+     * @param throttleThreshold the number of accepted requests after which the pattern is throttled.
+     * @param throttleRate one out of how many requests of a throttled pattern is accepted.
+     */
+    public void setThrottle(int throttleThreshold, int throttleRate) {
+        if (throttleRate <= 0)
+            throw new IllegalArgumentException("The throttle rate must be positive.");
+        this.throttleThreshold = throttleThreshold;
+        this.throttleRate = throttleRate;
+    }
+
+    /** Sets the number of accepted requests of a URL pattern after which the pattern is dropped. */
+    public void setDropThreshold(int dropThreshold) {
+        this.dropThreshold = dropThreshold;
+    }
+
+    /**
+     * Sets the minimum shares of the accepted requests of its host a URL pattern must make up to be throttled
+     * and to be dropped, once it has reached the respective threshold.
+     *
+     * @param throttleShare the minimum share of its host for a pattern to be throttled, between {@code 0} and
+     *                      {@code 1}.
+     * @param dropShare the minimum share of its host for a pattern to be dropped, between {@code 0} and {@code 1}.
+     */
+    public void setHostShares(double throttleShare, double dropShare) {
+        if (throttleShare < 0 || throttleShare > 1 || dropShare < 0 || dropShare > 1)
+            throw new IllegalArgumentException("The host shares must be between 0 and 1.");
+        this.throttleShare = throttleShare;
+        this.dropShare = dropShare;
+    }
+
+    /**
+     * Sets the period after which the counts of the URL patterns and hosts are halved.
+     *
+     * @param period the decay period.
+     * @param unit the time unit of the period.
+     */
+    public void setDecayPeriod(long period, TimeUnit unit) {
+        if (period <= 0)
+            throw new IllegalArgumentException("The decay period must be positive.");
+        this.decayPeriod = unit.toNanos(period);
+    }
+}
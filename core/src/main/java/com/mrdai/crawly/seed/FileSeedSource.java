@@ -0,0 +1,126 @@
+package com.mrdai.crawly.seed;
+
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.http.BasicHttpRequest;
+import com.mrdai.crawly.network.http.HttpMethods;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * {@link SeedSource} which reads URLs from a newline-delimited file, one {@code GET} {@link BasicHttpRequest}
+ * per line. Blank lines and lines starting with {@code #} are skipped.
+ * <p>
+ * The file is memory-mapped one window at a time, so the source starts instantly and uses the same amount of
+ * memory no matter how large the file is. On default, each window covers {@code 64} MiB of the file, which is
+ * also the maximum length of a line.
+ */
+public class FileSeedSource implements SeedSource {
+    private static final Logger LOG = LoggerFactory.getLogger(FileSeedSource.class);
+
+    private static final long DEFAULT_WINDOW_SIZE = 64L << 20;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String pathname;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    /**
+     * Creates a {@code FileSeedSource} reading the file with the given pathname.
+     *
+     * @param pathname the pathname of the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FileSeedSource(String pathname) throws IOException {
+        this(pathname, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a {@code FileSeedSource} reading the file with the given pathname,
+     * which maps the given number of bytes of the file at a time.
+     *
+     * @param pathname the pathname of the file.
+     * @param windowSize the number of bytes mapped at a time, which is also the maximum length of a line.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FileSeedSource(String pathname, long windowSize) throws IOException {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The window size must be positive and within 2 GiB.");
+        this.pathname = pathname;
+        this.file = new RandomAccessFile(pathname, "r");
+        this.channel = file.getChannel();
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public Request next() throws IOException {
+        for (String line = readLine(); line != null; line = readLine()) {
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#')
+                continue;
+            try {
+                return new BasicHttpRequest(HttpMethods.GET, line);
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Skipping malformed URL `{}` in seed file {}", line, pathname);
+            }
+        }
+        return null;
+    }
+
+    private String readLine() throws IOException {
+        while (position < size) {
+            if (window == null || position >= windowStart + window.limit())
+                map(position);
+
+            int start = (int) (position - windowStart);
+            int limit = window.limit();
+            for (int i = start; i < limit; i++) {
+                if (window.get(i) == '\n') {
+                    position = windowStart + i + 1;
+                    return decode(start, i);
+                }
+            }
+            if (windowStart + limit == size) {
+                position = size;
+                return decode(start, limit);
+            }
+            if (start == 0)
+                throw new IOException("Line at offset " + position + " of seed file " + pathname
+                                      + " is longer than " + windowSize + " bytes.");
+            map(position);
+        }
+        return null;
+    }
+
+    private String decode(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer line = window.duplicate();
+        line.position(start);
+        line.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+}
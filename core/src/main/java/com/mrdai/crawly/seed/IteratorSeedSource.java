@@ -0,0 +1,32 @@
+package com.mrdai.crawly.seed;
+
+import com.mrdai.crawly.network.Request;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * {@link SeedSource} which provides the requests returned by the given {@link Iterator}.
+ * The iterator is only advanced when the crawler asks for more requests, so it can generate
+ * its requests on the fly.
+ */
+public class IteratorSeedSource implements SeedSource {
+    private final Iterator<? extends Request> iterator;
+
+    /**
+     * Creates an {@code IteratorSeedSource} with the given {@code Iterator}.
+     *
+     * @param iterator the given {@code Iterator}.
+     */
+    public IteratorSeedSource(Iterator<? extends Request> iterator) {
+        this.iterator = iterator;
+    }
+
+    @Override
+    public Request next() {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public void close() throws IOException {}
+}
@@ -0,0 +1,35 @@
+package com.mrdai.crawly.seed;
+
+import com.mrdai.crawly.network.Request;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * <p>
+ *     A {@code SeedSource} provides starting requests to a {@link com.mrdai.crawly.Crawler Crawler} lazily,
+ *     while the crawler is running.
+ * </p>
+ * <p>
+ *     Unlike {@link com.mrdai.crawly.Crawler#addStartRequest(Request) Crawler#addStartRequest}, which requires every
+ *     starting request to be created before the crawler starts, a {@code SeedSource} is only asked for more requests
+ *     when the crawler is running low on requests to crawl. Implementations are thus expected to read their
+ *     requests from a stream, a file or an iterator, instead of holding all of them in memory.
+ * </p>
+ *
+ * @see com.mrdai.crawly.Crawler#addSeedSource(SeedSource)
+ * @see com.mrdai.crawly.scheduler.SeedingScheduler
+ *
+ * @since 0.1
+ */
+public interface SeedSource extends Closeable {
+
+    /**
+     * Returns the next starting {@code Request}; returns {@code null} if the source is exhausted.
+     *
+     * @return the next starting {@code Request}, or {@code null} if there is no more.
+     * @throws IOException if an I/O exception occurs.
+     */
+    Request next() throws IOException;
+
+}
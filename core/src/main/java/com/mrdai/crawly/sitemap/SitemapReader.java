@@ -0,0 +1,307 @@
+package com.mrdai.crawly.sitemap;
+
+import com.mrdai.crawly.downloader.Downloader;
+import com.mrdai.crawly.network.CrawlMetadata;
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.Response;
+import com.mrdai.crawly.network.http.BasicHttpRequest;
+import com.mrdai.crawly.network.http.HttpMethods;
+import com.mrdai.crawly.network.http.HttpResponse;
+import com.mrdai.crawly.scheduler.Scheduler;
+import com.mrdai.crawly.seed.SeedSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A {@code SitemapReader} streams the URLs listed in sitemaps and sitemap indexes as {@link Request}s,
+ * which can be used to seed a crawl with a huge number of starting requests.
+ * <p>
+ * Sitemaps are parsed with StAX as they are downloaded, so only the URL being read is held in memory, no matter
+ * how many URLs a sitemap lists. Gzip-compressed sitemaps are detected by their magic number and decompressed
+ * on the fly. The sitemaps listed in a sitemap index are not downloaded until every URL before them has been read.
+ * <p>
+ * Only the {@code <loc>} elements of the sitemap namespace which are direct children of a {@code <url>} or
+ * {@code <sitemap>} entry are read, so that the locations of extensions such as {@code <image:loc>} are ignored.
+ * Each sitemap is read at most once, and sitemap indexes are followed at most {@code 3} levels deep, so that
+ * indexes listing themselves or each other cannot loop forever.
+ * <p>
+ * Sitemaps with an {@code http} or {@code https} URL are downloaded with the given {@link Downloader}, which
+ * must return an {@link HttpResponse}; sitemaps with a {@code file} URL are read from the local file system.
+ * The sitemaps listed in a {@code robots.txt} file can be found via
+ * {@link com.mrdai.crawly.robots.RobotsRules#getSitemaps() RobotsRules#getSitemaps}.
+ * <p>
+ * Every produced request is a {@code GET} {@link BasicHttpRequest} with the metadata of a starting request.
+ * As a {@link SeedSource}, a {@code SitemapReader} can also be handed to
+ * {@link com.mrdai.crawly.Crawler#addSeedSource(SeedSource) Crawler#addSeedSource}, so that the sitemaps are read
+ * only as the crawl needs more requests. This class is not thread-safe.
+ */
+public class SitemapReader implements SeedSource {
+    private static final Logger LOG = LoggerFactory.getLogger(SitemapReader.class);
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private static final String[] NAMESPACES = {
+        "http://www.sitemaps.org/schemas/sitemap/0.9", "http://www.google.com/schemas/sitemap/0.84"
+    };
+    private static final int MAX_NESTING = 3;
+
+    private final Downloader downloader;
+    private final Deque<String> pendingSitemaps = new ArrayDeque<>();
+    // The nesting level of every sitemap ever queued, `0` for the given sitemaps
+    private final Map<String, Integer> levels = new HashMap<>();
+
+    private InputStream currentStream;
+    private XMLStreamReader currentReader;
+    private String currentSitemap;
+    private int currentLevel;
+    private int elementDepth;
+    private boolean inSitemapEntry;
+
+    /**
+     * Creates a {@code SitemapReader} which reads the given sitemaps or sitemap indexes in order.
+     *
+     * @param downloader the {@code Downloader} used to download the sitemaps.
+     * @param sitemapUrls the URLs of the sitemaps or sitemap indexes.
+     */
+    public SitemapReader(Downloader downloader, String... sitemapUrls) {
+        this.downloader = downloader;
+        for (String sitemapUrl : sitemapUrls) {
+            if (levels.put(sitemapUrl, 0) == null)
+                pendingSitemaps.add(sitemapUrl);
+        }
+    }
+
+    /**
+     * Returns the next {@code Request} listed in the sitemaps; returns {@code null} if every sitemap
+     * has been read.
+     * <p>
+     * A sitemap that cannot be downloaded or parsed is logged and skipped.
+     *
+     * @return the next {@code Request}, or {@code null} if there is no more.
+     * @throws IOException if an I/O exception occurs when reading a local sitemap.
+     */
+    @Override
+    public Request next() throws IOException {
+        while (true) {
+            if (currentReader == null && !openNext())
+                return null;
+            try {
+                String loc = nextLoc();
+                if (loc == null) {
+                    closeCurrent();
+                    continue;
+                }
+                if (inSitemapEntry) {
+                    queueNested(loc);
+                    continue;
+                }
+                try {
+                    BasicHttpRequest request = new BasicHttpRequest(HttpMethods.GET, loc);
+                    request.setMetadata(new CrawlMetadata());
+                    return request;
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Skipping malformed URL `{}` in sitemap {}", loc, currentSitemap);
+                }
+            } catch (XMLStreamException e) {
+                LOG.error("Failed to parse sitemap " + currentSitemap + ", skipping the rest of it.", e);
+                closeCurrent();
+            }
+        }
+    }
+
+    /**
+     * Reads at most {@code batchSize} requests from the sitemaps and pushes them to the given {@code Scheduler}
+     * while holding its intrinsic lock, notifying every thread waiting on it afterwards.
+     * Returns the number of requests read, which is {@code 0} only if every sitemap has been read.
+     * <p>
+     * Locking the {@code Scheduler} once per batch keeps seeding from contending with the download threads of
+     * a running {@link com.mrdai.crawly.ConcurrentCrawler ConcurrentCrawler} on every single request. To seed
+     * a running crawler, pass the {@code Scheduler} returned by
+     * {@link com.mrdai.crawly.Crawler#getScheduler() Crawler#getScheduler} after the crawler has started, which is
+     * the one whose lock the crawler holds and whose waiting threads must be notified; it may differ from the
+     * {@code Scheduler} the crawler was given. To seed a crawler before it starts, prefer
+     * {@link com.mrdai.crawly.Crawler#addSeedSource(SeedSource) Crawler#addSeedSource}.
+     *
+     * @param scheduler the given {@code Scheduler}.
+     * @param batchSize the maximum number of requests to push.
+     * @return the number of requests read from the sitemaps.
+     * @throws IOException if an I/O exception occurs when reading a local sitemap.
+     */
+    public int pushTo(Scheduler scheduler, int batchSize) throws IOException {
+        Request[] batch = new Request[batchSize];
+        int size = 0;
+        for (Request request = next(); request != null; request = size < batchSize ? next() : null)
+            batch[size++] = request;
+        if (size == 0)
+            return 0;
+
+        synchronized (scheduler) {
+            for (int i = 0; i < size; i++)
+                scheduler.push(batch[i]);
+            scheduler.notifyAll();
+        }
+        return size;
+    }
+
+    /**
+     * Reads every request from the sitemaps and pushes them to the given {@code Scheduler}
+     * in batches of the given size.
+     *
+     * @param scheduler the given {@code Scheduler}.
+     * @param batchSize the number of requests pushed at once.
+     * @return the total number of requests read from the sitemaps.
+     * @throws IOException if an I/O exception occurs when reading a local sitemap.
+     * @see #pushTo(Scheduler, int)
+     */
+    public long pushAllTo(Scheduler scheduler, int batchSize) throws IOException {
+        long total = 0;
+        for (int n = pushTo(scheduler, batchSize); n > 0; n = pushTo(scheduler, batchSize))
+            total += n;
+        return total;
+    }
+
+    /** Queues the given sitemap found in the current sitemap index, unless it was queued before or is too deep. */
+    private void queueNested(String loc) {
+        if (currentLevel >= MAX_NESTING) {
+            LOG.warn("Skipping sitemap {} in {}, as sitemap indexes are nested too deep.", loc, currentSitemap);
+        } else if (levels.containsKey(loc)) {
+            LOG.debug("Skipping sitemap {} in {}, as it has already been queued.", loc, currentSitemap);
+        } else {
+            LOG.debug("Found nested sitemap {} in {}", loc, currentSitemap);
+            levels.put(loc, currentLevel + 1);
+            pendingSitemaps.add(loc);
+        }
+    }
+
+    /**
+     * Returns the text of the next {@code <loc>} element of the sitemap namespace which is a direct child of
+     * a {@code <url>} or {@code <sitemap>} entry, or {@code null} at the end of the document.
+     */
+    private String nextLoc() throws XMLStreamException {
+        while (currentReader.hasNext()) {
+            int event = currentReader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                elementDepth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT)
+                continue;
+            elementDepth++;
+            if (!isSitemapNamespace(currentReader.getNamespaceURI()))
+                continue;
+            String name = currentReader.getLocalName();
+            // Entries are children of the root <urlset> or <sitemapindex>, and their <loc> are their children
+            if (elementDepth == 2 && name.equals("sitemap"))
+                inSitemapEntry = true;
+            else if (elementDepth == 2 && name.equals("url"))
+                inSitemapEntry = false;
+            else if (elementDepth == 3 && name.equals("loc")) {
+                // Reads up to the end of the element
+                elementDepth--;
+                return currentReader.getElementText().trim();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSitemapNamespace(String namespace) {
+        for (String sitemapNamespace : NAMESPACES) {
+            if (sitemapNamespace.equals(namespace))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean openNext() throws IOException {
+        while (!pendingSitemaps.isEmpty()) {
+            String sitemap = pendingSitemaps.poll();
+            LOG.info("Reading sitemap {}", sitemap);
+            InputStream in = open(sitemap);
+            if (in == null)
+                continue;
+            try {
+                currentReader = FACTORY.createXMLStreamReader(in);
+                currentStream = in;
+                currentSitemap = sitemap;
+                currentLevel = levels.get(sitemap);
+                elementDepth = 0;
+                inSitemapEntry = false;
+                return true;
+            } catch (XMLStreamException e) {
+                LOG.error("Failed to parse sitemap " + sitemap + ", skipping it.", e);
+                in.close();
+            }
+        }
+        return false;
+    }
+
+    private InputStream open(String sitemap) throws IOException {
+        InputStream raw;
+        if (sitemap.startsWith("file:")) {
+            raw = new FileInputStream(new File(URI.create(sitemap)));
+        } else {
+            Response response;
+            try {
+                response = downloader.download(new BasicHttpRequest(HttpMethods.GET, sitemap));
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.error("Failed to download sitemap " + sitemap + ", skipping it.", e);
+                return null;
+            }
+            HttpResponse hResponse = (HttpResponse) response;
+            if (hResponse.getStatusCode() / 100 != 2 || hResponse.getEntity() == null) {
+                LOG.warn("Sitemap {} returned {}, skipping it.", sitemap, hResponse);
+                if (hResponse.getEntity() != null && hResponse.getEntity().isStreaming())
+                    hResponse.getEntity().getContent().close();
+                return null;
+            }
+            raw = hResponse.getEntity().getContent();
+        }
+
+        // Detect gzip by its magic number, as servers rarely label compressed sitemaps consistently
+        InputStream in = new BufferedInputStream(raw);
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        return b1 == 0x1f && b2 == 0x8b ? new GZIPInputStream(in) : in;
+    }
+
+    private void closeCurrent() throws IOException {
+        try {
+            currentReader.close();
+        } catch (XMLStreamException e) {
+            LOG.debug("Failed to close parser of sitemap " + currentSitemap, e);
+        }
+        currentStream.close();
+        currentReader = null;
+        currentStream = null;
+        currentSitemap = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pendingSitemaps.clear();
+        if (currentReader != null)
+            closeCurrent();
+    }
+}
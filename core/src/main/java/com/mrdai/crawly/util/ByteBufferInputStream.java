@@ -0,0 +1,64 @@
+package com.mrdai.crawly.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} reading the remaining bytes of a sequence of {@link ByteBuffer}s in order, without
+ * copying them. Reading advances the positions of the given buffers, thus callers should pass duplicates or
+ * read-only views of buffers they still need.
+ */
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer[] buffers;
+    private int index;
+
+    /**
+     * Creates a {@code ByteBufferInputStream} reading the given buffers in order.
+     *
+     * @param buffers the given buffers.
+     */
+    public ByteBufferInputStream(ByteBuffer... buffers) {
+        this.buffers = buffers;
+    }
+
+    private ByteBuffer current() {
+        while (index < buffers.length && !buffers[index].hasRemaining())
+            index++;
+        return index < buffers.length ? buffers[index] : null;
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer buffer = current();
+        return buffer == null ? -1 : buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        ByteBuffer buffer = current();
+        if (buffer == null)
+            return -1;
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        for (ByteBuffer buffer = current(); buffer != null && skipped < n; buffer = current()) {
+            int step = (int) Math.min(n - skipped, buffer.remaining());
+            buffer.position(buffer.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        ByteBuffer buffer = current();
+        return buffer == null ? 0 : buffer.remaining();
+    }
+}
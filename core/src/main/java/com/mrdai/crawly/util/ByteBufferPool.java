@@ -0,0 +1,72 @@
+package com.mrdai.crawly.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe pool of heap {@link ByteBuffer}s of the same capacity, which lets response bodies be buffered
+ * without allocating fresh arrays for every download.
+ * <p>
+ * The pool keeps at most the given number of idle buffers; buffers released while the pool is full are left
+ * to the garbage collector. Buffers are handed out cleared, i.e. ready to be written.
+ */
+public class ByteBufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Creates a {@code ByteBufferPool} of buffers with the given capacity, keeping at most the given
+     * number of idle buffers.
+     *
+     * @param bufferSize the capacity of each buffer, in bytes.
+     * @param maxPooled the maximum number of idle buffers kept by the pool.
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("The buffer size must be positive.");
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns a cleared buffer from the pool, allocating a new one if the pool is empty.
+     *
+     * @return a cleared buffer.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+            return ByteBuffer.allocate(bufferSize);
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns the given buffer to the pool. The buffer must not be used by the caller afterwards.
+     *
+     * @param buffer the buffer acquired from this pool.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isReadOnly())
+            throw new IllegalArgumentException("The given buffer does not belong to this pool.");
+        if (pooled.incrementAndGet() <= maxPooled)
+            buffers.offer(buffer);
+        else
+            pooled.decrementAndGet();
+    }
+
+    /** Returns the capacity of each buffer of this pool, in bytes. */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /** Returns the number of idle buffers currently held by this pool. */
+    public int getPooledCount() {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,101 @@
+package com.mrdai.crawly.util;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.Charset;
+
+/**
+ * A count-min sketch, which estimates the frequency of {@code String} keys in a fixed amount of memory.
+ * Estimates never fall below the real counts, but may exceed them when keys collide; wider sketches collide less.
+ * <p>
+ * This implementation uses conservative update, i.e. only the smallest counters of a key are incremented,
+ * which noticeably reduces over-estimation. Counters can be halved via {@link #decay()} so that old
+ * observations fade out over time.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class CountMinSketch {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int depth;
+    private final int mask;
+    private final int[][] counters;
+    private final int[] indexes;
+
+    /**
+     * Creates a {@code CountMinSketch} with the given depth and width. The width will be rounded up to
+     * the next power of two. The sketch uses {@code depth * width * 4} bytes of memory.
+     *
+     * @param depth the number of hash rows.
+     * @param width the number of counters in each row.
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || width <= 0)
+            throw new IllegalArgumentException("The depth and width of the sketch must be positive.");
+        if (width > 1 << 30)
+            throw new IllegalArgumentException("The width of the sketch is too large.");
+        int realWidth = Integer.highestOneBit(width);
+        if (realWidth < width)
+            realWidth <<= 1;
+        this.depth = depth;
+        this.mask = realWidth - 1;
+        this.counters = new int[depth][realWidth];
+        this.indexes = new int[depth];
+    }
+
+    /**
+     * Increments the count of the given key and returns its new estimated count.
+     *
+     * @param key the given key.
+     * @return the estimated count of the key after the increment.
+     */
+    public int add(String key) {
+        hash(key);
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++)
+            min = Math.min(min, counters[i][indexes[i]]);
+        if (min == Integer.MAX_VALUE)
+            return min;
+        for (int i = 0; i < depth; i++) {
+            if (counters[i][indexes[i]] == min)
+                counters[i][indexes[i]]++;
+        }
+        return min + 1;
+    }
+
+    /**
+     * Returns the estimated count of the given key.
+     *
+     * @param key the given key.
+     * @return the estimated count of the key.
+     */
+    public int estimate(String key) {
+        hash(key);
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++)
+            min = Math.min(min, counters[i][indexes[i]]);
+        return min;
+    }
+
+    /**
+     * Halves every counter in the sketch.
+     */
+    public void decay() {
+        for (int[] row : counters) {
+            for (int i = 0; i < row.length; i++)
+                row[i] >>>= 1;
+        }
+    }
+
+    private void hash(String key) {
+        HashCode code = HASH.hashString(key, UTF_8);
+        long hash = code.asLong();
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < depth; i++)
+            indexes[i] = (h1 + i * h2) & mask;
+    }
+}
@@ -0,0 +1,206 @@
+package com.mrdai.crawly.warc;
+
+import com.mrdai.crawly.network.Request;
+import com.mrdai.crawly.network.http.BasicHttpResponse;
+import com.mrdai.crawly.network.http.HttpHeaders;
+import com.mrdai.crawly.util.ByteBufferInputStream;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.InputStreamEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the HTTP responses recorded in uncompressed WARC files, which serves them straight from the
+ * memory-mapped files.
+ * <p>
+ * Every file is memory-mapped as a whole when the index is built, and the records are scanned once to map each
+ * request, identified by its method and URI, to the position of its response. A {@code response} record is
+ * matched with the method of the {@code request} record it is {@code WARC-Concurrent-To}, and assumed to answer
+ * a {@code GET} otherwise. If a request has been recorded several times, the last response wins.
+ * <p>
+ * Files larger than {@code 2} GiB cannot be mapped as a whole and are rejected. Compressed {@code .warc.gz}
+ * files are not supported. This class is thread-safe once built.
+ *
+ * @see WarcWriter
+ * @see com.mrdai.crawly.downloader.WarcReplayDownloader
+ */
+public class WarcIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(WarcIndex.class);
+
+    private final List<MappedByteBuffer> files = new ArrayList<>();
+    private final Map<String, Location> locations = new HashMap<>();
+
+    /**
+     * Builds the index of the given WARC files, scanning them in order.
+     *
+     * @param paths the given WARC files.
+     * @throws IOException if a file cannot be mapped or is malformed.
+     */
+    public WarcIndex(List<Path> paths) throws IOException {
+        for (Path path : paths) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE)
+                    throw new IOException("WARC file " + path + " is too large to be memory-mapped.");
+                MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                files.add(file);
+                scan(path, files.size() - 1, file.duplicate());
+            }
+        }
+        LOG.info("Indexed {} responses in {} WARC files.", locations.size(), files.size());
+    }
+
+    private void scan(Path path, int fileIndex, ByteBuffer buffer) throws IOException {
+        Map<String, String> requestMethods = new HashMap<>();
+        while (true) {
+            String line = readLine(buffer);
+            while (line != null && line.isEmpty())
+                line = readLine(buffer);
+            if (line == null)
+                return;
+            if (!line.startsWith("WARC/"))
+                throw new IOException("Malformed WARC record in " + path + " at " + buffer.position());
+
+            Map<String, String> headers = new HashMap<>();
+            for (line = readLine(buffer); line != null && !line.isEmpty(); line = readLine(buffer)) {
+                int colon = line.indexOf(':');
+                if (colon > 0)
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+            String length = headers.get("content-length");
+            if (line == null || length == null)
+                throw new IOException("Truncated WARC record in " + path + " at " + buffer.position());
+            int start = buffer.position();
+            int end = (int) Math.min(buffer.limit(), start + Long.parseLong(length));
+            buffer.position(end);
+
+            String type = headers.get("warc-type");
+            if ("request".equals(type)) {
+                ByteBuffer block = buffer.duplicate();
+                block.limit(end).position(start);
+                String requestLine = readLine(block);
+                if (requestLine != null && requestLine.indexOf(' ') > 0)
+                    requestMethods.put(headers.get("warc-record-id"),
+                                       requestLine.substring(0, requestLine.indexOf(' ')));
+            } else if ("response".equals(type) && headers.containsKey("warc-target-uri")) {
+                String method = requestMethods.remove(headers.get("warc-concurrent-to"));
+                locations.put(keyOf(method == null ? "GET" : method, headers.get("warc-target-uri")),
+                              new Location(fileIndex, start, end - start));
+            }
+        }
+    }
+
+    /** Reads a line ended by LF, stripping the CR before it; returns {@code null} at the end of the buffer. */
+    private static String readLine(ByteBuffer buffer) {
+        if (!buffer.hasRemaining())
+            return null;
+        StringBuilder line = new StringBuilder();
+        while (buffer.hasRemaining()) {
+            char c = (char) (buffer.get() & 0xff);
+            if (c == '\n')
+                break;
+            if (c != '\r')
+                line.append(c);
+        }
+        return line.toString();
+    }
+
+    private static String keyOf(String method, String uri) {
+        return method.toUpperCase() + ' ' + uri;
+    }
+
+    /**
+     * Returns if a response has been recorded for the given method and URI.
+     *
+     * @param method the given method.
+     * @param uri the given URI.
+     * @return {@code true} if a response has been recorded; {@code false} otherwise.
+     */
+    public boolean contains(String method, String uri) {
+        return locations.containsKey(keyOf(method, uri));
+    }
+
+    /** Returns the number of indexed responses. */
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * Returns the response recorded for the given method and URI as a {@link BasicHttpResponse} of the given
+     * request, whose entity streams the body from the mapped file; returns {@code null} if there is none.
+     *
+     * @param request the request the response answers.
+     * @param method the method of the request.
+     * @param uri the URI of the request.
+     * @return the recorded response, or {@code null}.
+     * @throws IOException if the recorded response is malformed.
+     */
+    public BasicHttpResponse get(Request request, String method, String uri) throws IOException {
+        Location location = locations.get(keyOf(method, uri));
+        if (location == null)
+            return null;
+        ByteBuffer block = files.get(location.file).duplicate();
+        block.limit(location.offset + location.length).position(location.offset);
+
+        String statusLine = readLine(block);
+        String[] status = statusLine == null ? new String[0] : statusLine.split(" ", 3);
+        if (status.length < 2)
+            throw new IOException("Malformed status line `" + statusLine + "` recorded for " + uri);
+        BasicHttpResponse response;
+        try {
+            response = new BasicHttpResponse(request, versionOf(status[0]), Integer.parseInt(status[1]),
+                                             status.length > 2 ? status[2] : null);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line `" + statusLine + "` recorded for " + uri, e);
+        }
+        for (String line = readLine(block); line != null && !line.isEmpty(); line = readLine(block)) {
+            int colon = line.indexOf(':');
+            if (colon > 0)
+                response.addHeader(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+
+        InputStreamEntity entity = new InputStreamEntity(new ByteBufferInputStream(block.slice()),
+                                                         block.remaining());
+        if (response.getFirstHeader(HttpHeaders.CONTENT_TYPE) != null)
+            entity.setContentType(response.getFirstHeader(HttpHeaders.CONTENT_TYPE));
+        if (response.getFirstHeader(HttpHeaders.CONTENT_ENCODING) != null)
+            entity.setContentEncoding(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+        response.setEntity(entity);
+        return response;
+    }
+
+    private static ProtocolVersion versionOf(String version) {
+        switch (version) {
+            case "HTTP/2.0":
+            case "HTTP/2":
+                return new ProtocolVersion("HTTP", 2, 0);
+            case "HTTP/1.0":
+                return HttpVersion.HTTP_1_0;
+            default:
+                return HttpVersion.HTTP_1_1;
+        }
+    }
+
+    private static class Location {
+        final int file;
+        final int offset;
+        final int length;
+
+        Location(int file, int offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
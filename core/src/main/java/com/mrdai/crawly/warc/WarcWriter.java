@@ -0,0 +1,325 @@
+package com.mrdai.crawly.warc;
+
+import com.google.common.io.ByteStreams;
+import com.mrdai.crawly.network.http.HttpHeaders;
+import com.mrdai.crawly.network.http.HttpRequest;
+import com.mrdai.crawly.network.http.HttpResponse;
+import org.apache.http.FormattedHeader;
+import org.apache.http.Header;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * A {@code WarcWriter} appends HTTP exchanges to uncompressed WARC/1.0 files, as a {@code request} record
+ * followed by a {@code response} record referring to it via {@code WARC-Concurrent-To}.
+ * <p>
+ * Files are created in the given directory and named after the given prefix, the time they are created and
+ * a sequence number, e.g. {@code crawl-20161019120000-00000.warc}. Once a file exceeds the maximum size, the
+ * next exchange is written to a new file. On default, files are rotated after {@code 1} GiB, which keeps
+ * each of them small enough to be memory-mapped as a whole by {@link WarcIndex}.
+ * <p>
+ * This class is thread-safe; exchanges written concurrently are never interleaved. Each body is read in full
+ * before the writer is locked, so that a slow body never holds up the exchanges written alongside it.
+ *
+ * @see WarcIndex
+ * @see com.mrdai.crawly.downloader.WarcRecordingDownloader
+ */
+public class WarcWriter implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(WarcWriter.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final long DEFAULT_MAX_FILE_SIZE = 1L << 30;
+    private static final int MAX_BUFFERED_BODY = 1 << 20;
+
+    private final Path directory;
+    private final String prefix;
+    private final long maxFileSize;
+    private final SimpleDateFormat warcDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    private final SimpleDateFormat fileDate = new SimpleDateFormat("yyyyMMddHHmmss");
+
+    private Path file;
+    private OutputStream out;
+    private long written;
+    private int sequence;
+
+    /**
+     * Creates a {@code WarcWriter} writing files of at most {@code 1} GiB to the given directory.
+     *
+     * @param directory the directory of the WARC files.
+     * @param prefix the prefix of the names of the WARC files.
+     */
+    public WarcWriter(Path directory, String prefix) {
+        this(directory, prefix, DEFAULT_MAX_FILE_SIZE);
+    }
+
+    /**
+     * Creates a {@code WarcWriter} writing files of at most the given size to the given directory.
+     *
+     * @param directory the directory of the WARC files.
+     * @param prefix the prefix of the names of the WARC files.
+     * @param maxFileSize the size, in bytes, after which a new file is started.
+     */
+    public WarcWriter(Path directory, String prefix, long maxFileSize) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileSize = maxFileSize;
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        warcDate.setTimeZone(utc);
+        fileDate.setTimeZone(utc);
+    }
+
+    /**
+     * Writes the given exchange, copying the given number of bytes of the given stream as the body of the response,
+     * and returns an entity reading the recorded body back from the WARC file.
+     * <p>
+     * As the body is recorded as it is read, the {@code Transfer-Encoding} and {@code Content-Length} headers of
+     * the response are replaced by the length of the recorded body. Headers are written as HttpClient transfers
+     * them, one byte per character, so that the bytes received are kept as they are; characters beyond
+     * ISO-8859-1, which only headers set in code may contain, are written in UTF-8. If the stream ends before the
+     * given length, the record is padded with zeros so that the file stays readable, and an exception is thrown.
+     * <p>
+     * The body is read before the writer is locked, into memory if its length is known and at most {@code 1} MiB,
+     * and into a temporary file otherwise, so that it is copied to the WARC file at disk speed.
+     *
+     * @param request the request of the exchange.
+     * @param response the response of the exchange, whose entity is ignored.
+     * @param body the body of the response, or {@code null} if there is none.
+     * @param length the length of the body, in bytes, or a negative value to read the body to its end.
+     * @return an entity of the recorded body, or {@code null} if there is no body.
+     * @throws IOException if the body cannot be read, or the WARC file cannot be written.
+     */
+    public AbstractHttpEntity write(HttpRequest request, HttpResponse response, InputStream body, long length)
+            throws IOException {
+        if (body == null)
+            return append(request, response, null, 0);
+        if (length >= 0 && length <= MAX_BUFFERED_BODY) {
+            byte[] buffer = new byte[(int) length];
+            int read = ByteStreams.read(body, buffer, 0, buffer.length);
+            return append(request, response, new ByteArrayInputStream(buffer, 0, read), length);
+        }
+
+        Path spool = Files.createTempFile("crawly-", ".body");
+        try {
+            long read;
+            try (OutputStream spooled = Files.newOutputStream(spool)) {
+                read = ByteStreams.copy(length >= 0 ? ByteStreams.limit(body, length) : body, spooled);
+            }
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(spool))) {
+                return append(request, response, in, length >= 0 ? length : read);
+            }
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    /** Appends the given exchange, whose body is read from local storage, to the current file. */
+    private synchronized AbstractHttpEntity append(HttpRequest request, HttpResponse response, InputStream body,
+                                                   long length) throws IOException {
+        if (out == null || written >= maxFileSize)
+            rotate();
+
+        Date now = new Date();
+        String uri = request.getRequestTarget().toASCIIString();
+        String requestId = newRecordId();
+
+        ByteArrayOutputStream requestHead = new ByteArrayOutputStream();
+        writeRaw(requestHead, request.getMethod() + ' ' + requestTargetOf(request) + ' '
+                              + request.getProtocolVersion());
+        writeHeaders(requestHead, request.getAllHeaders(), false);
+        requestHead.write(CRLF, 0, CRLF.length);
+        writeRecord("request", requestId, null, uri, now, "application/http; msgtype=request",
+                    requestHead.toByteArray(), null, 0);
+
+        ByteArrayOutputStream responseHead = new ByteArrayOutputStream();
+        String statusLine = response.getProtocolVersion() + " " + response.getStatusCode();
+        writeRaw(responseHead, response.getReason() == null ? statusLine : statusLine + ' ' + response.getReason());
+        writeHeaders(responseHead, response.getAllHeaders(), body != null);
+        if (body != null)
+            writeRaw(responseHead, HttpHeaders.CONTENT_LENGTH + ": " + length);
+        responseHead.write(CRLF, 0, CRLF.length);
+        long offset = writeRecord("response", newRecordId(), requestId, uri, now,
+                                  "application/http; msgtype=response", responseHead.toByteArray(), body, length);
+        out.flush();
+        return body == null ? null : new RecordedEntity(file, offset, length);
+    }
+
+    private static String requestTargetOf(HttpRequest request) {
+        String path = request.getRequestTarget().getRawPath();
+        String query = request.getRequestTarget().getRawQuery();
+        if (path == null || path.isEmpty())
+            path = "/";
+        return query == null ? path : path + '?' + query;
+    }
+
+    /**
+     * Writes the given headers, leaving out {@code Transfer-Encoding}, as well as {@code Content-Length} if
+     * the length of the body is rewritten.
+     */
+    private static void writeHeaders(ByteArrayOutputStream head, Header[] headers, boolean rewriteLength) {
+        for (Header header : headers) {
+            if (header.getName().equalsIgnoreCase(HttpHeaders.TRANSFER_ENCODING)
+                || rewriteLength && header.getName().equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH))
+                continue;
+            // Parsed headers keep their line as received
+            if (header instanceof FormattedHeader)
+                writeRaw(head, ((FormattedHeader) header).getBuffer().toString());
+            else
+                writeRaw(head, header.getName() + ": " + header.getValue());
+        }
+    }
+
+    /** Writes the given line followed by CRLF, one byte per character up to {@code 0xFF}, and in UTF-8 beyond. */
+    private static void writeRaw(ByteArrayOutputStream head, String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c <= 0xFF) {
+                head.write(c);
+                continue;
+            }
+            int end = Character.isHighSurrogate(c) && i + 1 < line.length() ? i + 2 : i + 1;
+            byte[] encoded = line.substring(i, end).getBytes(UTF_8);
+            head.write(encoded, 0, encoded.length);
+            i = end - 1;
+        }
+        head.write(CRLF, 0, CRLF.length);
+    }
+
+    /**
+     * Writes a record whose block is the given head followed by the given number of bytes of the given body, and
+     * returns the offset of the body in the current file.
+     */
+    private long writeRecord(String type, String id, String concurrentTo, String uri, Date date,
+                             String contentType, byte[] head, InputStream body, long bodyLength)
+            throws IOException {
+        long length = head.length + (body == null ? 0 : bodyLength);
+        StringBuilder header = new StringBuilder();
+        header.append("WARC/1.0\r\n")
+              .append("WARC-Type: ").append(type).append("\r\n")
+              .append("WARC-Record-ID: ").append(id).append("\r\n")
+              .append("WARC-Date: ").append(warcDate.format(date)).append("\r\n")
+              .append("WARC-Target-URI: ").append(uri).append("\r\n");
+        if (concurrentTo != null)
+            header.append("WARC-Concurrent-To: ").append(concurrentTo).append("\r\n");
+        header.append("Content-Type: ").append(contentType).append("\r\n")
+              .append("Content-Length: ").append(length).append("\r\n")
+              .append("\r\n");
+        byte[] headerBytes = header.toString().getBytes(UTF_8);
+
+        out.write(headerBytes);
+        out.write(head);
+        long offset = written + headerBytes.length + head.length;
+        long copied = body == null ? 0 : ByteStreams.copy(ByteStreams.limit(body, bodyLength), out);
+        if (body != null && copied < bodyLength) {
+            for (long i = copied; i < bodyLength; i++)
+                out.write(0);
+        }
+        out.write(CRLF);
+        out.write(CRLF);
+        written += headerBytes.length + length + 2 * CRLF.length;
+        if (body != null && copied < bodyLength)
+            throw new EOFException("The body of " + uri + " ended after " + copied + " of " + bodyLength
+                                   + " bytes; its record has been padded.");
+        return offset;
+    }
+
+    private static String newRecordId() {
+        return "<urn:uuid:" + UUID.randomUUID() + '>';
+    }
+
+    private void rotate() throws IOException {
+        if (out != null)
+            out.close();
+        file = directory.resolve(String.format("%s-%s-%05d.warc", prefix, fileDate.format(new Date()),
+                                               sequence++));
+        LOG.info("Writing WARC records to {}", file);
+        out = new BufferedOutputStream(Files.newOutputStream(file));
+        written = 0;
+    }
+
+    /**
+     * Flushes the records written so far to the current file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void flush() throws IOException {
+        if (out != null)
+            out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out == null)
+            return;
+        out.close();
+        out = null;
+    }
+
+    /** The body of a response record, read from its WARC file whenever its content is requested. */
+    private static class RecordedEntity extends AbstractHttpEntity {
+        private final Path file;
+        private final long offset;
+        private final long length;
+
+        RecordedEntity(Path file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ);
+            try {
+                channel.position(offset);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return ByteStreams.limit(new BufferedInputStream(Channels.newInputStream(channel)), length);
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            try (InputStream in = getContent()) {
+                ByteStreams.copy(in, outStream);
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.mrdai.crawly.examples.bing;
 
+import com.mrdai.crawly.network.CrawlMetadata;
 import com.mrdai.crawly.network.Request;
 import com.mrdai.crawly.network.http.AbstractHttpMessage;
 import com.mrdai.crawly.network.http.HttpMethods;
@@ -19,6 +20,7 @@ public class BingSearchRequest extends AbstractHttpMessage implements HttpReques
 
     private final URI uri;
     private final ProtocolVersion ver;
+    private CrawlMetadata metadata;
 
     /**
      * Creates a Bing search request with the given keywords.
@@ -59,4 +61,14 @@ public class BingSearchRequest extends AbstractHttpMessage implements HttpReques
     public ProtocolVersion getProtocolVersion() {
         return ver;
     }
+
+    @Override
+    public CrawlMetadata getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public void setMetadata(CrawlMetadata metadata) {
+        this.metadata = metadata;
+    }
 }